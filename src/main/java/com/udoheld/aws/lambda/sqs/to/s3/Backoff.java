@@ -0,0 +1,63 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Calculates retry delays using exponential backoff with full jitter, so that retrying
+ * threads do not hit AWS at the same moment again.
+ *
+ * @author Udo Held
+ */
+final class Backoff {
+
+  private Backoff() {
+  }
+
+  /**
+   * Returns a random delay between zero and the exponentially growing upper bound.
+   * @param attempt Number of the retry starting with 0.
+   * @param baseMs Upper bound of the first retry.
+   * @param maxMs Upper bound for all retries.
+   * @return Delay in milliseconds.
+   */
+  static long jitteredDelayMs(int attempt, long baseMs, long maxMs) {
+    long bound = baseMs << Math.min(attempt, 20);
+    if (bound <= 0 || bound > maxMs) {
+      bound = maxMs;
+    }
+    return ThreadLocalRandom.current().nextLong(bound + 1);
+  }
+
+  /**
+   * Sleeps for the given delay.
+   * @param delayMs Delay in milliseconds.
+   * @return false if the thread has been interrupted.
+   */
+  static boolean sleep(long delayMs) {
+    try {
+      Thread.sleep(delayMs);
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+}
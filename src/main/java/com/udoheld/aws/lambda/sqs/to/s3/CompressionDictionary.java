@@ -0,0 +1,93 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Loads preset dictionaries for the zlib compression. A dictionary is read once per container
+ * either from the classpath, with the prefix "classpath:", or from the file system, e.g. /tmp.
+ *
+ * @author Udo Held
+ */
+final class CompressionDictionary {
+
+  static final String CLASSPATH_PREFIX = "classpath:";
+
+  /** Deflate only refers back 32 KB, so only the end of a larger dictionary is used. */
+  static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+  private static final Map<String, byte[]> dictionaries = new ConcurrentHashMap<>();
+
+  private CompressionDictionary() {
+  }
+
+  /**
+   * Returns the dictionary of the location.
+   * @param location File path or classpath resource prefixed by "classpath:".
+   * @return Dictionary of at most 32 KB.
+   */
+  static byte[] load(String location) {
+    return dictionaries.computeIfAbsent(location, CompressionDictionary::read);
+  }
+
+  private static byte[] read(String location) {
+    byte[] dictionary;
+    try {
+      if (location.startsWith(CLASSPATH_PREFIX)) {
+        String resource = location.substring(CLASSPATH_PREFIX.length());
+        try (InputStream in = CompressionDictionary.class.getClassLoader()
+            .getResourceAsStream(resource)) {
+          if (in == null) {
+            throw new IllegalArgumentException("Compression dictionary \"" + location
+                + "\" not found.");
+          }
+          dictionary = readFully(in);
+        }
+      } else {
+        dictionary = Files.readAllBytes(Paths.get(location));
+      }
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Error reading compression dictionary \"" + location
+          + "\".", e);
+    }
+    if (dictionary.length > MAX_DICTIONARY_SIZE) {
+      dictionary = Arrays.copyOfRange(dictionary, dictionary.length - MAX_DICTIONARY_SIZE,
+          dictionary.length);
+    }
+    return dictionary;
+  }
+
+  private static byte[] readFully(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,199 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.Config;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Clients and threads, which are kept by a warm Lambda container across invocations, so TLS
+ * sessions, connection pools and threads are set up once. The resources are rebuilt if the
+ * thread counts of the configuration change. All threads are daemon threads.
+ *
+ * @author Udo Held
+ */
+final class ContainerResources {
+
+  private static ContainerResources current;
+
+  private final String key;
+  private final int uploadThreads;
+  private final int deletionThreads;
+  private final int receiveThreads;
+  private AmazonS3 s3Client;
+  private AmazonSQS sqsClient;
+  private final ExecutorService uploadExecutor;
+  private final ExecutorService deletionExecutor;
+  private final ExecutorService receiveExecutor;
+  private final ExecutorService finalizeExecutor;
+  private final ScheduledExecutorService heartbeatScheduler;
+  private UploadBudget uploadBudget;
+  private final UploadConcurrencyLimiter uploadLimiter;
+
+  private ContainerResources(Config config, String key) {
+    this.key = key;
+    // With adaptive concurrency the limiter decides how many of the threads upload at once.
+    uploadThreads = Math.max(config.isS3UploadThreadsAdaptive()
+        ? config.getS3UploadThreadsMax() : config.getS3UploadThreadCount(), 1);
+    uploadLimiter = config.isS3UploadThreadsAdaptive()
+        ? new UploadConcurrencyLimiter(config.getS3UploadThreadCount(), uploadThreads) : null;
+    deletionThreads = Math.max(config.getSqsDeletionThreads(), 1);
+    // A single receive thread is used for prefetching.
+    receiveThreads = Math.max(config.getSqsReceiveThreads(), 1);
+    uploadExecutor = Executors.newFixedThreadPool(uploadThreads, daemonThreads("s3-upload"));
+    deletionExecutor =
+        Executors.newFixedThreadPool(deletionThreads, daemonThreads("sqs-deletion"));
+    receiveExecutor = Executors.newFixedThreadPool(receiveThreads, daemonThreads("sqs-receive"));
+    // Separate from the upload threads, as completing a file waits for its part uploads.
+    finalizeExecutor = Executors.newFixedThreadPool(
+        Math.max(config.getS3FinalizeMaxPendingFiles(), 1), daemonThreads("s3-finalize"));
+    heartbeatScheduler = Executors.newSingleThreadScheduledExecutor(
+        daemonThreads("sqs-visibility-heartbeat"));
+  }
+
+  /**
+   * Returns the resources of the container, rebuilding them if the configuration has changed.
+   * @param config Lambda configuration.
+   * @return Container resources.
+   */
+  static synchronized ContainerResources get(Config config) {
+    String key = createKey(config);
+    if (current == null || !current.key.equals(key)) {
+      if (current != null) {
+        current.shutdown();
+      }
+      current = new ContainerResources(config, key);
+    }
+    return current;
+  }
+
+  synchronized AmazonS3 getS3Client() {
+    if (s3Client == null) {
+      s3Client = new AmazonS3Client(clientConfiguration(uploadThreads));
+    }
+    return s3Client;
+  }
+
+  /**
+   * Replaces the S3 client, e.g. with an in-memory stand-in.
+   * @param s3Client S3 client.
+   */
+  synchronized void setS3Client(AmazonS3 s3Client) {
+    this.s3Client = s3Client;
+  }
+
+  synchronized AmazonSQS getSqsClient() {
+    if (sqsClient == null) {
+      sqsClient = new AmazonSQSClient(clientConfiguration(receiveThreads + deletionThreads + 1));
+    }
+    return sqsClient;
+  }
+
+  /**
+   * Replaces the SQS client, e.g. with an in-memory stand-in.
+   * @param sqsClient SQS client.
+   */
+  synchronized void setSqsClient(AmazonSQS sqsClient) {
+    this.sqsClient = sqsClient;
+  }
+
+  ExecutorService getUploadExecutor() {
+    return uploadExecutor;
+  }
+
+  ExecutorService getDeletionExecutor() {
+    return deletionExecutor;
+  }
+
+  ExecutorService getReceiveExecutor() {
+    return receiveExecutor;
+  }
+
+  ExecutorService getFinalizeExecutor() {
+    return finalizeExecutor;
+  }
+
+  ScheduledExecutorService getHeartbeatScheduler() {
+    return heartbeatScheduler;
+  }
+
+  /**
+   * Returns the concurrency limiter of the part uploads. It keeps the learned limit across
+   * warm invocations.
+   * @return Limiter or null if the concurrency isn't adaptive.
+   */
+  UploadConcurrencyLimiter getUploadLimiter() {
+    return uploadLimiter;
+  }
+
+  /**
+   * Returns the budget shared by all uploads. It is only replaced if the size changes.
+   * @param maxBytes Budget in bytes.
+   * @return Upload budget.
+   */
+  synchronized UploadBudget getUploadBudget(long maxBytes) {
+    if (uploadBudget == null || uploadBudget.getMaxBytes() != maxBytes) {
+      uploadBudget = new UploadBudget(maxBytes);
+    }
+    return uploadBudget;
+  }
+
+  private synchronized void shutdown() {
+    uploadExecutor.shutdown();
+    deletionExecutor.shutdown();
+    receiveExecutor.shutdownNow();
+    finalizeExecutor.shutdown();
+    heartbeatScheduler.shutdownNow();
+    if (s3Client instanceof AmazonS3Client) {
+      ((AmazonS3Client) s3Client).shutdown();
+    }
+    if (sqsClient != null) {
+      sqsClient.shutdown();
+    }
+  }
+
+  private static String createKey(Config config) {
+    return config.getS3UploadThreadCount() + "/" + config.getSqsDeletionThreads() + "/"
+        + config.getSqsReceiveThreads() + "/"
+        + (config.isS3UploadThreadsAdaptive() ? config.getS3UploadThreadsMax() : 0) + "/"
+        + config.getS3FinalizeMaxPendingFiles();
+  }
+
+  private static ClientConfiguration clientConfiguration(int threads) {
+    return new ClientConfiguration().withMaxConnections(
+        Math.max(ClientConfiguration.DEFAULT_MAX_CONNECTIONS, threads * 2));
+  }
+
+  private static ThreadFactory daemonThreads(String name) {
+    return runnable -> {
+      Thread thread = new Thread(runnable, name);
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
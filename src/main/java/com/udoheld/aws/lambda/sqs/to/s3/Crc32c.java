@@ -0,0 +1,101 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C (Castagnoli) checksums. On Java 9 and later {@link #create()} returns the JDK
+ * implementation, which the JIT replaces with the CPU's CRC32 instructions. On Java 8 a table
+ * based implementation is used instead.
+ *
+ * @author Udo Held
+ */
+final class Crc32c implements Checksum {
+
+  private static final int POLYNOMIAL = 0x82f63b78;
+  private static final int[] TABLE = new int[256];
+  private static final Class<?> JDK_CRC32C = loadJdkCrc32c();
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      int crc = i;
+      for (int bit = 0; bit < 8; bit++) {
+        crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+      }
+      TABLE[i] = crc;
+    }
+  }
+
+  private int crc = 0xffffffff;
+
+  /**
+   * Creates a new CRC-32C checksum, preferably the intrinsified JDK implementation.
+   * @return CRC-32C checksum.
+   */
+  static Checksum create() {
+    if (JDK_CRC32C != null) {
+      try {
+        return (Checksum) JDK_CRC32C.getDeclaredConstructor().newInstance();
+      } catch (ReflectiveOperationException expected) {
+        // Falls back to the table implementation.
+      }
+    }
+    return new Crc32c();
+  }
+
+  static String toBase64(long checksum) {
+    return Base64.getEncoder().encodeToString(
+        ByteBuffer.allocate(4).putInt((int) checksum).array());
+  }
+
+  @Override
+  public void update(int value) {
+    crc = (crc >>> 8) ^ TABLE[(crc ^ value) & 0xff];
+  }
+
+  @Override
+  public void update(byte[] bytes, int offset, int length) {
+    int localCrc = crc;
+    for (int i = offset; i < offset + length; i++) {
+      localCrc = (localCrc >>> 8) ^ TABLE[(localCrc ^ bytes[i]) & 0xff];
+    }
+    crc = localCrc;
+  }
+
+  @Override
+  public long getValue() {
+    return ~crc & 0xffffffffL;
+  }
+
+  @Override
+  public void reset() {
+    crc = 0xffffffff;
+  }
+
+  private static Class<?> loadJdkCrc32c() {
+    try {
+      return Class.forName("java.util.zip.CRC32C");
+    } catch (ClassNotFoundException expected) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import com.amazonaws.AmazonClientException;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Compresses blocks of records in parallel on the upload threads, similar to pigz. Each block
+ * becomes an independent gzip member. The members are appended to the part in the order of the
+ * blocks, a concatenation of gzip members is a valid gzip stream.
+ *
+ * @author Udo Held
+ */
+class ParallelPartCompressor {
+
+  private final int level;
+  private final ExecutorService executor;
+  private final int maxPendingBlocks;
+  private final Deque<Future<PartBuffer>> pendingBlocks = new ArrayDeque<>();
+
+  ParallelPartCompressor(int level, ExecutorService executor, int maxPendingBlocks) {
+    this.level = level;
+    this.executor = executor;
+    this.maxPendingBlocks = maxPendingBlocks;
+  }
+
+  /**
+   * Submits the staged records for compression and appends all blocks, which have been
+   * compressed in the meantime, to the part. Waits for the oldest block if too many blocks are
+   * pending. The staging buffer is released after its compression.
+   * @param staging Uncompressed records.
+   * @param part Target part buffer.
+   */
+  void compress(PartBuffer staging, PartBuffer part) {
+    if (staging.size() > 0) {
+      pendingBlocks.add(executor.submit(() -> {
+        PartBuffer block = new PartBuffer(PartBuffer.ChecksumType.NONE);
+        try {
+          new PartCompressor(level).compress(staging, block, true);
+          return block;
+        } catch (RuntimeException e) {
+          block.release();
+          throw e;
+        } finally {
+          staging.release();
+        }
+      }));
+    } else {
+      staging.release();
+    }
+    while (!pendingBlocks.isEmpty()
+        && (pendingBlocks.peek().isDone() || pendingBlocks.size() > maxPendingBlocks)) {
+      appendBlock(part);
+    }
+  }
+
+  /**
+   * Waits for all pending blocks and appends them to the part.
+   * @param part Target part buffer.
+   */
+  void finish(PartBuffer part) {
+    while (!pendingBlocks.isEmpty()) {
+      appendBlock(part);
+    }
+  }
+
+  /**
+   * Discards the pending blocks, e.g. after a failed upload. The blocks aren't cancelled: a
+   * cancelled block, which hasn't started, would never release its staging buffer, and a
+   * running one would never release its compressed block. They are awaited and released.
+   */
+  void reset() {
+    while (!pendingBlocks.isEmpty()) {
+      try {
+        pendingBlocks.poll().get().release();
+      } catch (InterruptedException expected) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException expected) {
+        // The block is discarded anyway, its buffers have been released by the task.
+      }
+    }
+  }
+
+  private void appendBlock(PartBuffer part) {
+    PartBuffer block;
+    try {
+      block = pendingBlocks.poll().get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new AmazonClientException("Interrupted while compressing a part.", e);
+    } catch (ExecutionException e) {
+      throw new AmazonClientException("Error compressing a part.", e.getCause());
+    }
+    for (int i = 0; i < block.getChunkCount(); i++) {
+      part.write(block.getChunk(i), 0, block.getChunkLength(i));
+    }
+    block.release();
+  }
+}
@@ -0,0 +1,343 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Checksum;
+
+/**
+ * Buffer for an upload part. The bytes are written once into fixed size chunks, so the buffer
+ * never copies when it grows, and are streamed from the chunks to S3 without creating a byte
+ * array of the whole part. The chunks are taken from a pool shared by all parts and files of
+ * the container and returned after the part has been uploaded.
+ *
+ * @author Udo Held
+ */
+public class PartBuffer extends OutputStream {
+
+  /**
+   * Checksum, which is calculated while the buffer is written.
+   */
+  public enum ChecksumType {
+    MD5, CRC32C, NONE
+  }
+
+  static final int CHUNK_SIZE = 64 * 1024;
+  private static final int MAX_POOLED_CHUNKS = 256;
+
+  private static final ConcurrentLinkedDeque<byte[]> chunkPool = new ConcurrentLinkedDeque<>();
+  private static final AtomicInteger pooledChunks = new AtomicInteger();
+  private static final ConcurrentLinkedDeque<MessageDigest> md5Pool =
+      new ConcurrentLinkedDeque<>();
+
+  private final List<byte[]> chunks = new ArrayList<>();
+  private byte[] currentChunk;
+  private int chunkPosition = CHUNK_SIZE;
+  private int size = 0;
+  private final ChecksumType checksumType;
+  private MessageDigest md5;
+  private Checksum crc32c;
+  private int digestedChunks = 0;
+
+  public PartBuffer() {
+    this(ChecksumType.MD5);
+  }
+
+  public PartBuffer(ChecksumType checksumType) {
+    this.checksumType = checksumType;
+  }
+
+  @Override
+  public void write(int value) {
+    if (chunkPosition == CHUNK_SIZE) {
+      nextChunk();
+    }
+    currentChunk[chunkPosition++] = (byte) value;
+    size++;
+  }
+
+  @Override
+  public void write(byte[] bytes, int offset, int length) {
+    while (length > 0) {
+      if (chunkPosition == CHUNK_SIZE) {
+        nextChunk();
+      }
+      int copyLength = Math.min(length, CHUNK_SIZE - chunkPosition);
+      System.arraycopy(bytes, offset, currentChunk, chunkPosition, copyLength);
+      chunkPosition += copyLength;
+      offset += copyLength;
+      length -= copyLength;
+      size += copyLength;
+    }
+  }
+
+  /**
+   * Encodes the text as UTF-8 directly into the chunks, without creating a temporary byte array.
+   * Unpaired surrogates are written as '?' like {@link String#getBytes(java.nio.charset.Charset)}
+   * does.
+   * @param text Text to write.
+   */
+  public void writeUtf8(CharSequence text) {
+    int length = text.length();
+    for (int i = 0; i < length; i++) {
+      char character = text.charAt(i);
+      if (character < 0x80) {
+        write(character);
+      } else if (character < 0x800) {
+        write(0xc0 | (character >> 6));
+        write(0x80 | (character & 0x3f));
+      } else if (Character.isSurrogate(character)) {
+        int codePoint = -1;
+        if (Character.isHighSurrogate(character) && i + 1 < length
+            && Character.isLowSurrogate(text.charAt(i + 1))) {
+          codePoint = Character.toCodePoint(character, text.charAt(++i));
+        }
+        if (codePoint < 0) {
+          write('?');
+        } else {
+          write(0xf0 | (codePoint >> 18));
+          write(0x80 | ((codePoint >> 12) & 0x3f));
+          write(0x80 | ((codePoint >> 6) & 0x3f));
+          write(0x80 | (codePoint & 0x3f));
+        }
+      } else {
+        write(0xe0 | (character >> 12));
+        write(0x80 | ((character >> 6) & 0x3f));
+        write(0x80 | (character & 0x3f));
+      }
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Creates a stream reading the buffered bytes. It supports mark and reset, so the AWS SDK can
+   * retry a request without buffering the part another time.
+   * @return Stream over the buffer content.
+   */
+  public InputStream newInputStream() {
+    return new PartInputStream();
+  }
+
+  /**
+   * Returns the MD5 digest of the buffer content, the buffer must not be written afterwards.
+   * Full chunks are digested while the buffer is written, so only the last chunk remains to be
+   * digested when the part is cut.
+   * @return MD5 digest, null if MD5 isn't available.
+   */
+  public byte[] md5Digest() {
+    if (checksumType != ChecksumType.MD5) {
+      return null;
+    }
+    finishChecksum();
+    MessageDigest digest = md5;
+    md5 = null;
+    if (digest == null) {
+      return null;
+    }
+    // digest() resets the instance for the next part.
+    byte[] result = digest.digest();
+    md5Pool.push(digest);
+    return result;
+  }
+
+  /**
+   * Returns the CRC-32C checksum of the buffer content, the buffer must not be written
+   * afterwards. Like the MD5 digest it is updated whenever a chunk is full.
+   * @return CRC-32C value, -1 if the buffer doesn't calculate CRC-32C checksums.
+   */
+  public long crc32cChecksum() {
+    if (checksumType != ChecksumType.CRC32C) {
+      return -1;
+    }
+    finishChecksum();
+    return crc32c.getValue();
+  }
+
+  ChecksumType getChecksumType() {
+    return checksumType;
+  }
+
+  /**
+   * Returns the chunks to the pool. The buffer must not be used afterwards.
+   */
+  public void release() {
+    for (byte[] chunk : chunks) {
+      if (pooledChunks.incrementAndGet() <= MAX_POOLED_CHUNKS) {
+        chunkPool.push(chunk);
+      } else {
+        pooledChunks.decrementAndGet();
+      }
+    }
+    chunks.clear();
+    currentChunk = null;
+    chunkPosition = CHUNK_SIZE;
+    size = 0;
+    if (md5 != null) {
+      md5.reset();
+      md5Pool.push(md5);
+      md5 = null;
+    }
+    crc32c = null;
+    digestedChunks = 0;
+  }
+
+  byte[] getChunk(int index) {
+    return chunks.get(index);
+  }
+
+  int getChunkCount() {
+    return chunks.size();
+  }
+
+  /**
+   * Length of the used bytes of the given chunk.
+   * @param index Chunk index.
+   * @return Used bytes.
+   */
+  int getChunkLength(int index) {
+    return index < chunks.size() - 1 ? CHUNK_SIZE : chunkPosition;
+  }
+
+  private void nextChunk() {
+    if (currentChunk != null && digestedChunks == chunks.size() - 1) {
+      updateChecksum(currentChunk, CHUNK_SIZE);
+    }
+    byte[] chunk = chunkPool.poll();
+    if (chunk != null) {
+      pooledChunks.decrementAndGet();
+    } else {
+      chunk = new byte[CHUNK_SIZE];
+    }
+    chunks.add(chunk);
+    currentChunk = chunk;
+    chunkPosition = 0;
+  }
+
+  private void finishChecksum() {
+    for (int i = digestedChunks; i < chunks.size(); i++) {
+      updateChecksum(chunks.get(i), getChunkLength(i));
+    }
+    if (checksumType == ChecksumType.CRC32C && crc32c == null) {
+      crc32c = Crc32c.create();
+    }
+  }
+
+  private void updateChecksum(byte[] chunk, int length) {
+    if (checksumType == ChecksumType.MD5) {
+      if (md5 == null) {
+        md5 = acquireMd5();
+      }
+      if (md5 == null) {
+        return;
+      }
+      md5.update(chunk, 0, length);
+    } else if (checksumType == ChecksumType.CRC32C) {
+      if (crc32c == null) {
+        crc32c = Crc32c.create();
+      }
+      crc32c.update(chunk, 0, length);
+    }
+    digestedChunks++;
+  }
+
+  private static MessageDigest acquireMd5() {
+    MessageDigest digest = md5Pool.poll();
+    if (digest == null) {
+      try {
+        digest = MessageDigest.getInstance("MD5");
+      } catch (NoSuchAlgorithmException expected) {
+        // Parts are uploaded without Content-MD5 then.
+      }
+    }
+    return digest;
+  }
+
+  private class PartInputStream extends InputStream {
+    private int position = 0;
+    private int markPosition = 0;
+
+    @Override
+    public int read() {
+      if (position >= size) {
+        return -1;
+      }
+      int value = chunks.get(position / CHUNK_SIZE)[position % CHUNK_SIZE] & 0xff;
+      position++;
+      return value;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      }
+      if (position >= size) {
+        return -1;
+      }
+      int readLength = 0;
+      while (readLength < length && position < size) {
+        int chunkOffset = position % CHUNK_SIZE;
+        int copyLength = Math.min(Math.min(length - readLength, CHUNK_SIZE - chunkOffset),
+            size - position);
+        System.arraycopy(chunks.get(position / CHUNK_SIZE), chunkOffset, bytes,
+            offset + readLength, copyLength);
+        readLength += copyLength;
+        position += copyLength;
+      }
+      return readLength;
+    }
+
+    @Override
+    public long skip(long count) {
+      long skipped = Math.max(0, Math.min(count, size - position));
+      position += skipped;
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return size - position;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+      markPosition = position;
+    }
+
+    @Override
+    public synchronized void reset() {
+      position = markPosition;
+    }
+  }
+}
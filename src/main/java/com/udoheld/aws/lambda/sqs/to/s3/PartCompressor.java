@@ -0,0 +1,123 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses the framed records of a file into gzip or zlib format. The records are compressed
+ * block-wise from an uncompressed staging buffer into the part buffer, so a single stream
+ * spans all parts of a file and the part size is measured on the compressed bytes. The zlib
+ * format supports a preset dictionary, which improves the compression of small files.
+ *
+ * @author Udo Held
+ */
+class PartCompressor {
+
+  private static final byte[] GZIP_HEADER = {
+      0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+  private final int level;
+  private final boolean gzip;
+  private final byte[] dictionary;
+  private final byte[] output = new byte[PartBuffer.CHUNK_SIZE];
+  private final CRC32 crc = new CRC32();
+  private Deflater deflater;
+
+  PartCompressor(int level) {
+    this(level, true, null);
+  }
+
+  /**
+   * Creates a compressor.
+   * @param level Deflate level.
+   * @param gzip Writes gzip format if true, zlib format otherwise.
+   * @param dictionary Preset dictionary for the zlib format, may be null.
+   */
+  PartCompressor(int level, boolean gzip, byte[] dictionary) {
+    this.level = level;
+    this.gzip = gzip;
+    this.dictionary = dictionary;
+  }
+
+  /**
+   * Compresses the staged bytes into the part buffer. The staging buffer can be released
+   * afterwards.
+   * @param staging Uncompressed records.
+   * @param part Target part buffer.
+   * @param finishFile Writes the end of the stream.
+   */
+  void compress(PartBuffer staging, PartBuffer part, boolean finishFile) {
+    if (deflater == null) {
+      deflater = new Deflater(level, gzip);
+      if (gzip) {
+        crc.reset();
+        part.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+      } else if (dictionary != null) {
+        // The zlib header contains the Adler-32 id of the dictionary.
+        deflater.setDictionary(dictionary);
+      }
+    }
+    for (int i = 0; i < staging.getChunkCount(); i++) {
+      byte[] chunk = staging.getChunk(i);
+      int length = staging.getChunkLength(i);
+      if (gzip) {
+        crc.update(chunk, 0, length);
+      }
+      deflater.setInput(chunk, 0, length);
+      while (!deflater.needsInput()) {
+        drain(part);
+      }
+    }
+    if (finishFile) {
+      deflater.finish();
+      while (!deflater.finished()) {
+        drain(part);
+      }
+      if (gzip) {
+        writeIntLittleEndian(part, (int) crc.getValue());
+        writeIntLittleEndian(part, (int) deflater.getBytesRead());
+      }
+      reset();
+    }
+  }
+
+  /**
+   * Discards the current stream, e.g. after a failed upload.
+   */
+  void reset() {
+    if (deflater != null) {
+      deflater.end();
+      deflater = null;
+    }
+  }
+
+  private void drain(PartBuffer part) {
+    int length = deflater.deflate(output);
+    part.write(output, 0, length);
+  }
+
+  private static void writeIntLittleEndian(PartBuffer part, int value) {
+    part.write(value);
+    part.write(value >>> 8);
+    part.write(value >>> 16);
+    part.write(value >>> 24);
+  }
+}
@@ -0,0 +1,55 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.Config;
+
+/**
+ * Grows the part size geometrically with the number of parts of a file. The first parts are
+ * uploaded early with the configured part size, while large files need fewer requests. The
+ * size doubles every {@value #PARTS_PER_STEP} parts up to the configured maximum. It is never
+ * smaller than needed to fit the maximum file size into the 10,000 parts allowed by S3.
+ *
+ * @author Udo Held
+ */
+final class PartSizeSchedule {
+
+  static final int S3_MAXIMUM_PARTS = 10000;
+  static final int PARTS_PER_STEP = 4;
+  /** Doubling more often would overflow long long before reaching any sensible ceiling. */
+  private static final int MAX_STEPS = 30;
+
+  private PartSizeSchedule() {
+  }
+
+  /**
+   * Returns the size at which the next part of a file is uploaded.
+   * @param config Lambda configuration.
+   * @param uploadedParts Parts of the file uploaded so far.
+   * @return Part size in bytes.
+   */
+  static long getPartSizeLimit(Config config, int uploadedParts) {
+    long baseBytes = config.getS3UploadPartSizeKb() * 1024L;
+    long maxBytes = Math.max(config.getS3UploadPartMaxSizeKb() * 1024L, baseBytes);
+    int steps = Math.min(uploadedParts / PARTS_PER_STEP, MAX_STEPS);
+    long limit = Math.min(baseBytes << steps, maxBytes);
+    long fileBytes = config.getS3MaxFileSizeKb() * 1024L;
+    return Math.max(limit, (fileBytes + S3_MAXIMUM_PARTS - 1) / S3_MAXIMUM_PARTS);
+  }
+}
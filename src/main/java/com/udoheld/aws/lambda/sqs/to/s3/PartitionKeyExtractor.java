@@ -0,0 +1,152 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.Config;
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.ConfigurationInitializer;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Extracts the partition key of a message from a JSON field, a message attribute or the first
+ * group of a regular expression and formats it as Hive-style key prefix "[name]=[value]/".
+ * Messages without a key are written to the Hive default partition.
+ *
+ * @author Udo Held
+ */
+class PartitionKeyExtractor {
+
+  static final String DEFAULT_PARTITION = "__HIVE_DEFAULT_PARTITION__";
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+  private static final String HIVE_ESCAPED_CHARACTERS = "\"#%'*/:=?\\{[]^";
+
+  private final String source;
+  private final String[] jsonPath;
+  private final String attributeName;
+  private final Pattern pattern;
+  private final String partitionName;
+
+  private PartitionKeyExtractor(Config config) {
+    source = config.getS3PartitionKeySource();
+    String key = config.getS3PartitionKey();
+    jsonPath = ConfigurationInitializer.S3_PARTITION_KEY_SOURCE_JSON.equals(source)
+        ? key.split("\\.") : null;
+    attributeName = key;
+    pattern = ConfigurationInitializer.S3_PARTITION_KEY_SOURCE_REGEX.equals(source)
+        ? Pattern.compile(key) : null;
+    partitionName = config.getS3PartitionName();
+  }
+
+  /**
+   * Creates the extractor for the configured partition key.
+   * @param config Lambda configuration.
+   * @return Extractor or null if the output isn't partitioned.
+   */
+  static PartitionKeyExtractor create(Config config) {
+    if (config.getS3PartitionKeySource() == null
+        || ConfigurationInitializer.S3_PARTITION_KEY_SOURCE_NONE.equals(
+            config.getS3PartitionKeySource())) {
+      return null;
+    }
+    return new PartitionKeyExtractor(config);
+  }
+
+  /**
+   * Returns the key prefix of the message's partition.
+   * @param message Message.
+   * @return Prefix "[name]=[value]/".
+   */
+  String getPartitionPrefix(SqsMessageHandler.MessageHolder message) {
+    String value = extractValue(message);
+    return partitionName + "=" + (value == null || value.isEmpty() ? DEFAULT_PARTITION
+        : escape(value)) + "/";
+  }
+
+  private String extractValue(SqsMessageHandler.MessageHolder message) {
+    if (jsonPath != null) {
+      return extractJsonField(message.getMessage());
+    } else if (pattern != null) {
+      Matcher matcher = pattern.matcher(message.getMessage());
+      return matcher.find() && matcher.groupCount() > 0 ? matcher.group(1) : null;
+    } else {
+      Map<String, String> attributes = message.getMessageAttributes();
+      return attributes == null ? null : attributes.get(attributeName);
+    }
+  }
+
+  /**
+   * Reads the field of the JSON path from the message without parsing the whole message.
+   * @param body Message body.
+   * @return Field value or null if the message isn't JSON or doesn't contain the field.
+   */
+  private String extractJsonField(String body) {
+    try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return null;
+      }
+      int depth = 0;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        if (!jsonPath[depth].equals(field)) {
+          parser.skipChildren();
+        } else if (depth == jsonPath.length - 1) {
+          return value.isScalarValue() && value != JsonToken.VALUE_NULL ? parser.getText() : null;
+        } else if (value == JsonToken.START_OBJECT) {
+          depth++;
+        } else {
+          return null;
+        }
+      }
+      return null;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Escapes the characters, which Hive doesn't allow in partition values, as "%[hex]".
+   * @param value Partition value.
+   * @return Escaped value.
+   */
+  static String escape(String value) {
+    StringBuilder escaped = null;
+    for (int i = 0; i < value.length(); i++) {
+      char character = value.charAt(i);
+      boolean escape = character < ' ' || character == 0x7f
+          || HIVE_ESCAPED_CHARACTERS.indexOf(character) >= 0;
+      if (escape && escaped == null) {
+        escaped = new StringBuilder(value.length() + 8).append(value, 0, i);
+      }
+      if (escape) {
+        escaped.append('%').append(String.format("%02X", (int) character));
+      } else if (escaped != null) {
+        escaped.append(character);
+      }
+    }
+    return escaped == null ? value : escaped.toString();
+  }
+}
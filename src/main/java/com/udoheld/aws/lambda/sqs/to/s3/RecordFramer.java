@@ -0,0 +1,72 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.Config;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes messages including the configured initiators, separators and terminators into the
+ * part buffer. The delimiters are encoded once, message bodies are encoded as UTF-8 directly
+ * into the buffer, so framing a record doesn't allocate.
+ *
+ * @author Udo Held
+ */
+class RecordFramer {
+
+  private final byte[] fileInitiator;
+  private final byte[] fileTerminator;
+  private final byte[] recordInitiator;
+  private final byte[] recordSeparator;
+  private final byte[] recordTerminator;
+
+  RecordFramer(Config config) {
+    fileInitiator = encode(config.getS3FileInitiator());
+    fileTerminator = encode(config.getS3FileTerminator());
+    recordInitiator = encode(config.getS3RecordInitiator());
+    recordSeparator = encode(config.getS3RecordSeparator());
+    recordTerminator = encode(config.getS3RecordTerminator());
+  }
+
+  /**
+   * Writes a single message.
+   * @param buffer Target buffer.
+   * @param message Message body.
+   * @param firstRecordInFile Adds the file initiator instead of the record separator.
+   */
+  void writeRecord(PartBuffer buffer, String message, boolean firstRecordInFile) {
+    if (firstRecordInFile) {
+      buffer.write(fileInitiator, 0, fileInitiator.length);
+    } else {
+      buffer.write(recordSeparator, 0, recordSeparator.length);
+    }
+    buffer.write(recordInitiator, 0, recordInitiator.length);
+    buffer.writeUtf8(message);
+    buffer.write(recordTerminator, 0, recordTerminator.length);
+  }
+
+  void writeFileTerminator(PartBuffer buffer) {
+    buffer.write(fileTerminator, 0, fileTerminator.length);
+  }
+
+  private static byte[] encode(String delimiter) {
+    return delimiter == null ? new byte[0] : delimiter.getBytes(StandardCharsets.UTF_8);
+  }
+}
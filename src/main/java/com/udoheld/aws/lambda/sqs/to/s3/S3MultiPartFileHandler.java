@@ -18,31 +18,36 @@
 
 package com.udoheld.aws.lambda.sqs.to.s3;
 
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.LambdaLogger;
-import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
 import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
 import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.UploadPartRequest;
 import com.amazonaws.services.s3.model.UploadPartResult;
 import com.udoheld.aws.lambda.sqs.to.s3.cfg.Config;
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.ConfigurationInitializer;
 
-import java.io.ByteArrayInputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
 
 /**
  * Writes the input to S3 allowing for the splitting of multiple parts.
@@ -50,19 +55,38 @@ import java.util.concurrent.TimeoutException;
  * @author Udo Held
  */
 public class S3MultiPartFileHandler {
+  private static final String GZIP_CONTENT_ENCODING = "gzip";
+  private static final String GZIP_EXTENSION = ".gz";
+  private static final String ZLIB_CONTENT_ENCODING = "deflate";
+  private static final String ZLIB_EXTENSION = ".zz";
+  private static final String CHECKSUM_CRC32C_HEADER = "x-amz-checksum-crc32c";
+
+  private static final long UPLOAD_RETRY_BASE_MS = 200;
+  private static final long UPLOAD_RETRY_MAX_MS = 10000;
+  private static final long UPLOAD_RETRY_RESERVE_MS = 2000;
+
   private Config config;
   private String uploadId;
-  private final AmazonS3Client s3Client;
+  private final AmazonS3 s3Client;
   private int partCounter = 0;
   private ExecutorService executor;
   private boolean useThreads = false;
   private List<Future<PartETag>> parts = new ArrayList<>();
+  private String objectChecksum;
+  private PartBuffer singlePart;
+  private final IntSupplier remainingTimeMs;
+  private final int memoryLimitMb;
+  private UploadBudget uploadBudget;
+  private UploadConcurrencyLimiter uploadLimiter;
+  private TimeBudgetScheduler timeBudget;
+  private final AtomicInteger retriedRequests = new AtomicInteger();
   private final LambdaLogger log;
   private String fileNameKey;
   private String bucketName;
 
   /**
-   * Method for starting a multiple part upload.
+   * Method for starting a multiple part upload. The multipart upload is initiated with the
+   * first part, a file consisting of a single last part is written with one PutObject request.
    * @param fileName Filename or keyname in S3 excluding path.
    * @param config Lambda configuration.
    * @param log AWS Logger
@@ -70,48 +94,117 @@ public class S3MultiPartFileHandler {
    */
   public static S3MultiPartFileHandler startFileUpload(String fileName, Config config,
                                                        LambdaLogger log) {
-    S3MultiPartFileHandler s3Handler = new S3MultiPartFileHandler(config, log);
-    s3Handler.initMultipartUpload(fileName);
+    S3MultiPartFileHandler s3Handler =
+        new S3MultiPartFileHandler(config, log, () -> Integer.MAX_VALUE, 0);
+    s3Handler.initFileUpload(fileName);
     return s3Handler;
   }
 
-  private S3MultiPartFileHandler(Config config, LambdaLogger log) {
+  /**
+   * Method for starting a multiple part upload, failed requests are only retried as long as the
+   * Lambda has time left.
+   * @param fileName Filename or keyname in S3 excluding path.
+   * @param config Lambda configuration.
+   * @param context AWS Lambda context.
+   * @return A handler for uploading the parts.
+   */
+  public static S3MultiPartFileHandler startFileUpload(String fileName, Config config,
+                                                       Context context) {
+    S3MultiPartFileHandler s3Handler = new S3MultiPartFileHandler(config, context.getLogger(),
+        context::getRemainingTimeInMillis, context.getMemoryLimitInMB());
+    s3Handler.initFileUpload(fileName);
+    return s3Handler;
+  }
+
+  private S3MultiPartFileHandler(Config config, LambdaLogger log, IntSupplier remainingTimeMs,
+                                 int memoryLimitMb) {
     this.config = config;
-    s3Client = new AmazonS3Client();
+    s3Client = ContainerResources.get(config).getS3Client();
     this.log = log;
+    this.remainingTimeMs = remainingTimeMs;
+    this.memoryLimitMb = memoryLimitMb;
   }
 
   /**
-   * Reading the configuration and calling S3 for the retrieval of the upload id.
+   * Reading the configuration.
    * @param fileName S3 key name
    */
-  private void initMultipartUpload(String fileName) {
+  private void initFileUpload(String fileName) {
     initThreading();
 
     bucketName = config.getS3BucketName();
     fileNameKey = getFullKeyName(fileName);
+  }
 
+  /**
+   * Calling S3 for the retrieval of the upload id.
+   */
+  private void initMultipartUpload() {
     InitiateMultipartUploadRequest request =
-        new InitiateMultipartUploadRequest(bucketName, fileNameKey);
+        new InitiateMultipartUploadRequest(bucketName, fileNameKey)
+            .withObjectMetadata(createObjectMetadata());
 
-    InitiateMultipartUploadResult response = s3Client.initiateMultipartUpload(request);
+    InitiateMultipartUploadResult response =
+        withRetries(() -> s3Client.initiateMultipartUpload(request));
     uploadId = response.getUploadId();
   }
 
   private void initThreading() {
     useThreads = config.isS3UploadThreadsEnabled();
     if (useThreads) {
-      int threadCount = config.getS3UploadThreadCount() > 0 ? config.getS3UploadThreadCount() : 1;
-      executor = Executors.newFixedThreadPool(threadCount);
+      // Shared by all files of the container, also compresses the blocks of parallel compression.
+      executor = ContainerResources.get(config).getUploadExecutor();
+      uploadBudget = ContainerResources.get(config)
+          .getUploadBudget(UploadBudget.resolveMaxBytes(config, memoryLimitMb));
+      uploadLimiter = ContainerResources.get(config).getUploadLimiter();
     }
   }
 
+  private ObjectMetadata createObjectMetadata() {
+    ObjectMetadata metadata = new ObjectMetadata();
+    String contentEncoding = getContentEncoding();
+    if (contentEncoding != null) {
+      metadata.setContentEncoding(contentEncoding);
+    }
+    return metadata;
+  }
+
+  private String getExtension() {
+    if (ConfigurationInitializer.S3_COMPRESSION_GZIP.equals(config.getS3Compression())) {
+      return GZIP_EXTENSION;
+    } else if (ConfigurationInitializer.S3_COMPRESSION_ZLIB.equals(config.getS3Compression())) {
+      return ZLIB_EXTENSION;
+    }
+    return null;
+  }
+
+  /**
+   * Content encoding of the compression codec. HTTP clients can't decode zlib data compressed
+   * with a preset dictionary, so no encoding is set for it.
+   * @return Content encoding or null.
+   */
+  private String getContentEncoding() {
+    if (ConfigurationInitializer.S3_COMPRESSION_GZIP.equals(config.getS3Compression())) {
+      return GZIP_CONTENT_ENCODING;
+    } else if (ConfigurationInitializer.S3_COMPRESSION_ZLIB.equals(config.getS3Compression())
+        && (config.getS3CompressionDictionary() == null
+        || config.getS3CompressionDictionary().isEmpty())) {
+      return ZLIB_CONTENT_ENCODING;
+    }
+    return null;
+  }
+
   /**
-   * Generates the full S3 key/filename including folders.
+   * Generates the full S3 key/filename including folders and the extension of the compression
+   * codec.
    * @param fileName Filename.
    * @return Full key name including folder from the configuration.
    */
   private String getFullKeyName(String fileName) {
+    String extension = getExtension();
+    if (extension != null && !fileName.endsWith(extension)) {
+      fileName = fileName + extension;
+    }
     if (config.getS3BucketFolder() != null && !config.getS3BucketFolder().isEmpty()) {
       return config.getS3BucketFolder() + "/" + fileName;
     } else {
@@ -125,46 +218,194 @@ public class S3MultiPartFileHandler {
    * S3-API.
    * @param input Input as bytes.
    */
-  public synchronized void uploadPart(byte[] input)  {
-    ByteArrayInputStream bais = new ByteArrayInputStream(input);
+  public void uploadPart(byte[] input)  {
+    PartBuffer buffer = new PartBuffer();
+    buffer.write(input, 0, input.length);
+    uploadPart(buffer);
+  }
 
+  /**
+   * Uploads a part to AWS streaming it from the buffer. The buffer is released after the upload.
+   * Each part, but the last must be larger than 5 MB as required by the S3-API.
+   * @param buffer Part content.
+   */
+  public synchronized void uploadPart(PartBuffer buffer)  {
+    uploadPart(buffer, false);
+  }
+
+  /**
+   * Uploads a part to AWS streaming it from the buffer. If the last part is the only part, it
+   * is kept and written with a single PutObject request when the upload is finalized. The
+   * buffer is released after the upload.
+   * @param buffer Part content.
+   * @param lastPart No further parts follow.
+   */
+  public synchronized void uploadPart(PartBuffer buffer, boolean lastPart)  {
+    if (lastPart && uploadId == null) {
+      singlePart = buffer;
+      return;
+    }
+    if (uploadId == null) {
+      initMultipartUpload();
+    }
     final UploadPartRequest request = new UploadPartRequest();
     request
         .withBucketName(bucketName)
         .withKey(fileNameKey)
         .withUploadId(uploadId)
         .withPartNumber(++partCounter)
-        .withPartSize(input.length)
-        .withInputStream(bais);
-    try {
-      byte [] md5Hash = MessageDigest.getInstance("MD5").digest(input);
+        .withPartSize(buffer.size())
+        .withInputStream(buffer.newInputStream());
+    // S3 can't verify CRC-32C part checksums through this SDK. Without a Content-MD5 the SDK
+    // hashes the part while sending it and checks the ETag against it.
+    byte[] md5Hash = buffer.md5Digest();
+    if (md5Hash != null) {
       String md5enc = Base64.getEncoder().encodeToString(md5Hash);
       request.withMD5Digest(md5enc);
-    } catch (NoSuchAlgorithmException expected) {
     }
 
+    // The buffer is kept until the part has been acknowledged, every attempt streams it again.
+    final long partSize = buffer.size();
+    if (timeBudget != null) {
+      timeBudget.partQueued(partSize);
+    }
     Callable<PartETag> callable = () -> {
-      UploadPartResult result = s3Client.uploadPart(request);
-      return new PartETag(result.getPartNumber(),result.getETag());
+      long latencyMs = -1;
+      long startMs = System.currentTimeMillis();
+      try {
+        UploadPartResult result = withRetries(() -> sendPart(request, buffer));
+        latencyMs = System.currentTimeMillis() - startMs;
+        return new PartETag(result.getPartNumber(),result.getETag());
+      } finally {
+        buffer.release();
+        if (timeBudget != null) {
+          timeBudget.partUploaded(partSize, latencyMs);
+        }
+      }
     };
 
     if (useThreads) {
-      parts.add(executor.submit(callable));
+      uploadPartThreaded(callable, partSize);
     } else {
       uploadPartUnthreaded(callable);
     }
   }
 
+  /**
+   * Queues the upload once the part fits into the upload budget, so the writer is slowed down
+   * to the speed of S3 instead of queuing parts until the memory is used up.
+   * @param callable upload part callable.
+   * @param partSize Bytes held by the part until it has been uploaded.
+   */
+  private void uploadPartThreaded(Callable<PartETag> callable, long partSize) {
+    long blockedMs = uploadBudget.acquire(partSize);
+    if (config.isDebug() && blockedMs > 0) {
+      log.log("Waited \"" + blockedMs + "\" ms for the upload budget of \""
+          + uploadBudget.getMaxBytes() + "\"b, \"" + uploadBudget.getInFlightParts()
+          + "\" parts with \"" + uploadBudget.getInFlightBytes() + "\"b in flight.\n");
+    }
+    try {
+      parts.add(executor.submit(() -> {
+        try {
+          return callable.call();
+        } finally {
+          uploadBudget.release(partSize);
+        }
+      }));
+    } catch (RuntimeException e) {
+      uploadBudget.release(partSize);
+      throw e;
+    }
+  }
+
+  /**
+   * Reports the latencies of the uploads to the time budget of the invocation.
+   * @param timeBudget Time budget or null.
+   */
+  void setTimeBudget(TimeBudgetScheduler timeBudget) {
+    this.timeBudget = timeBudget;
+  }
+
+  /**
+   * Returns the budget of the parts in flight, which is null without upload threads.
+   * @return Upload budget.
+   */
+  UploadBudget getUploadBudget() {
+    return uploadBudget;
+  }
+
+  /**
+   * Sends a single attempt of a part upload. With adaptive concurrency it waits for a permit
+   * and reports the latency or the throttling to the limiter.
+   * @param request Upload request.
+   * @param buffer Part content.
+   * @return Result of the upload.
+   */
+  private UploadPartResult sendPart(UploadPartRequest request, PartBuffer buffer) {
+    return sendLimited(
+        () -> s3Client.uploadPart(request.withInputStream(buffer.newInputStream())),
+        buffer.size());
+  }
+
+  /**
+   * Sends a single attempt of an upload request, a part or a single part file, under the
+   * adaptive concurrency limit.
+   * @param request Upload request.
+   * @param bytes Uploaded bytes.
+   * @param <T> Result type.
+   * @return Result of the request.
+   */
+  private <T> T sendLimited(Supplier<T> request, long bytes) {
+    if (uploadLimiter == null) {
+      return request.get();
+    }
+    long startNanos = uploadLimiter.acquire();
+    try {
+      T result = request.get();
+      logConcurrencyDecision(uploadLimiter.onSuccess(startNanos, bytes), null);
+      return result;
+    } catch (AmazonServiceException e) {
+      if (isThrottled(e)) {
+        logConcurrencyDecision(uploadLimiter.onThrottled(startNanos), e);
+      }
+      throw e;
+    } finally {
+      uploadLimiter.release();
+    }
+  }
+
+  private void logConcurrencyDecision(UploadConcurrencyLimiter.Decision decision,
+                                      AmazonServiceException throttled) {
+    if (!config.isDebug() || decision == UploadConcurrencyLimiter.Decision.NONE) {
+      return;
+    }
+    String reason = throttled != null ? "after " + throttled.getErrorCode()
+        : decision == UploadConcurrencyLimiter.Decision.INCREASED ? "with flat latency"
+        : "after a latency spike";
+    log.log("Upload concurrency " + decision.name().toLowerCase() + " to \""
+        + uploadLimiter.getLimit() + "\" of \"" + uploadLimiter.getMaxLimit() + "\" " + reason
+        + ", average \"" + Math.round(uploadLimiter.getAverageMsPerMb()) + "\" ms/MB, \""
+        + uploadLimiter.getIncreases() + "\" increases, \"" + uploadLimiter.getDecreases()
+        + "\" decreases, \"" + uploadLimiter.getThrottles() + "\" throttles.\n");
+  }
+
+  /**
+   * S3 signals an overloaded prefix with 503 SlowDown.
+   * @param exception Exception of the request.
+   * @return true if the request has been throttled.
+   */
+  static boolean isThrottled(AmazonServiceException exception) {
+    return exception.getStatusCode() == 503 || "SlowDown".equals(exception.getErrorCode());
+  }
+
   /**
    * Direct upload processing instead of using an Executor.
    * This will postpone any exceptions to the calling of the get method.
    * @param callable upload part callable.
    */
   private void uploadPartUnthreaded(Callable<PartETag> callable) {
-    PartETag partHolder = null;
-
     try {
-      callable.call();
+      PartETag partHolder = callable.call();
       Future<PartETag> partFuture = new PartETagFuture(partHolder, null);
       parts.add(partFuture);
     } catch (Exception e) {
@@ -178,6 +419,9 @@ public class S3MultiPartFileHandler {
    * @return true if merging was successful.
    */
   public synchronized boolean finalizeMultipartUpload() {
+    if (singlePart != null) {
+      return putSinglePart();
+    }
     boolean uploadSuccess = false;
     try {
       List<PartETag> partETags = new ArrayList<>();
@@ -193,8 +437,16 @@ public class S3MultiPartFileHandler {
           .withPartETags(partETags);
 
       // Throws an error if unsuccessful.
-      s3Client.completeMultipartUpload(request);
+      long startMs = System.currentTimeMillis();
+      withRetries(() -> s3Client.completeMultipartUpload(request));
+      if (timeBudget != null) {
+        timeBudget.recordComplete(System.currentTimeMillis() - startMs);
+      }
       uploadSuccess = true;
+      if (config.isDebug() && retriedRequests.get() > 0) {
+        log.log("Uploaded \"" + fileNameKey + "\" after \"" + retriedRequests.get()
+            + "\" retried requests.\n");
+      }
     } catch (ExecutionException e) {
       if (e.getCause() instanceof AmazonS3Exception) {
         AmazonS3Exception s3Exception = (AmazonS3Exception) e.getCause();
@@ -214,9 +466,141 @@ public class S3MultiPartFileHandler {
     return uploadSuccess;
   }
 
+  /**
+   * Writes a file consisting of a single part with one request instead of initiating,
+   * uploading and completing a multipart upload.
+   * @return true if the upload was successful.
+   */
+  private boolean putSinglePart() {
+    PartBuffer buffer = singlePart;
+    singlePart = null;
+    final long size = buffer.size();
+    if (timeBudget != null) {
+      timeBudget.partQueued(size);
+    }
+    long latencyMs = -1;
+    try {
+      ObjectMetadata metadata = createObjectMetadata();
+      metadata.setContentLength(buffer.size());
+      byte[] md5Hash = buffer.md5Digest();
+      if (md5Hash != null) {
+        metadata.setContentMD5(Base64.getEncoder().encodeToString(md5Hash));
+      }
+      String checksum = buffer.getChecksumType() == PartBuffer.ChecksumType.CRC32C
+          ? Crc32c.toBase64(buffer.crc32cChecksum()) : null;
+      long startMs = System.currentTimeMillis();
+      withRetries(() -> sendLimited(() -> {
+        PutObjectRequest request =
+            new PutObjectRequest(bucketName, fileNameKey, buffer.newInputStream(), metadata);
+        if (checksum != null) {
+          // S3 verifies the checksum and stores it with the object.
+          request.putCustomRequestHeader(CHECKSUM_CRC32C_HEADER, checksum);
+        }
+        return s3Client.putObject(request);
+      }, size));
+      latencyMs = System.currentTimeMillis() - startMs;
+      if (checksum != null) {
+        objectChecksum = checksum;
+        log.log("Uploaded \"" + fileNameKey + "\" with CRC-32C checksum \""
+            + objectChecksum + "\".\n");
+      }
+      return true;
+    } catch (AmazonS3Exception e) {
+      log.log("Error uploading file.\n" + e.getMessage() + "\nresponseXml:"
+          + e.getErrorResponseXml());
+    } catch (Exception e) {
+      log.log("Error uploading file.\n" + e.getMessage());
+    } finally {
+      buffer.release();
+      if (timeBudget != null) {
+        timeBudget.partUploaded(size, latencyMs);
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Runs an S3 request retrying transient failures like 5xx responses, throttling or network
+   * errors with jittered exponential backoff, as long as retries and Lambda time are left. The
+   * SDK's own retries happen within each attempt.
+   * @param request S3 request.
+   * @param <T> Result type.
+   * @return Result of the request.
+   */
+  private <T> T withRetries(Supplier<T> request) {
+    int attempt = 0;
+    while (true) {
+      try {
+        return request.get();
+      } catch (AmazonClientException e) {
+        long delayMs = Backoff.jitteredDelayMs(attempt, UPLOAD_RETRY_BASE_MS, UPLOAD_RETRY_MAX_MS);
+        if (!isRetryable(e) || attempt >= config.getS3UploadMaxRetries()
+            || remainingTimeMs.getAsInt() - delayMs < UPLOAD_RETRY_RESERVE_MS
+            || !Backoff.sleep(delayMs)) {
+          throw e;
+        }
+        if (config.isDebug()) {
+          log.log("Retrying S3 request for \"" + fileNameKey + "\" after " + delayMs + " ms. "
+              + e.getMessage() + "\n");
+        }
+        retriedRequests.incrementAndGet();
+        attempt++;
+      }
+    }
+  }
+
+  /**
+   * Client errors like access denied or an unknown upload id fail permanently.
+   * @param exception Exception of the request.
+   * @return true if a retry may succeed.
+   */
+  static boolean isRetryable(AmazonClientException exception) {
+    if (exception instanceof AmazonServiceException) {
+      AmazonServiceException serviceException = (AmazonServiceException) exception;
+      int status = serviceException.getStatusCode();
+      return status >= 500 || status == 429 || status == 408
+          || "SlowDown".equals(serviceException.getErrorCode())
+          || "RequestTimeout".equals(serviceException.getErrorCode());
+    }
+    return exception.isRetryable();
+  }
+
+  /**
+   * Number of S3 requests of this file, which have been retried.
+   * @return Retried requests.
+   */
+  public int getRetriedRequests() {
+    return retriedRequests.get();
+  }
+
+  /**
+   * Returns the Base64 encoded CRC-32C checksum, which S3 verified for a single part file. It is
+   * only available for CRC-32C part checksums after a successful upload.
+   * @return Checksum or null.
+   */
+  public String getObjectChecksum() {
+    return objectChecksum;
+  }
+
+  /**
+   * Abandons the file, aborting the multipart upload if it has already been initiated, so no
+   * orphaned parts are left behind.
+   */
+  public synchronized void abortFileUpload() {
+    if (singlePart != null) {
+      singlePart.release();
+      singlePart = null;
+    }
+    abortUpload();
+  }
+
   private void abortUpload() {
+    if (uploadId == null) {
+      return;
+    }
     AbortMultipartUploadRequest request =
         new AbortMultipartUploadRequest(config.getS3BucketName(), fileNameKey,uploadId);
+    uploadId = null;
     s3Client.abortMultipartUpload(request);
   }
 
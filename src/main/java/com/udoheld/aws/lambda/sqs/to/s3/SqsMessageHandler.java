@@ -18,18 +18,41 @@
 
 package com.udoheld.aws.lambda.sqs.to.s3;
 
-import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
 import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.GetQueueAttributesRequest;
+import com.amazonaws.services.sqs.model.GetQueueAttributesResult;
 import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.QueueAttributeName;
 import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
 import com.amazonaws.services.sqs.model.ReceiveMessageResult;
 import com.udoheld.aws.lambda.sqs.to.s3.cfg.Config;
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.ConfigurationInitializer;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -40,31 +63,385 @@ import java.util.stream.Collectors;
  */
 public class SqsMessageHandler {
   private Config config;
-  private AmazonSQSClient sqsClient;
+  private final Context context;
+  private AmazonSQS sqsClient;
+  private BooleanSupplier hasTimeForMoreMessages = this::hasTimeLeft;
+
+  private final ContainerResources resources;
+  private final Set<Thread> pollerThreads = ConcurrentHashMap.newKeySet();
+  private TimeBudgetScheduler timeBudget;
+  private BlockingQueue<List<MessageHolder>> receivedBatches;
+  private final Queue<List<MessageHolder>> droppedBatches = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger activePollers = new AtomicInteger();
+  private volatile boolean receiving = false;
+  private volatile RuntimeException receiveFailure;
+
+  private ExecutorService prefetchExecutor;
+  private Future<List<MessageHolder>> prefetchedMessages;
+
+  private final List<Future<?>> pendingDeletions = new ArrayList<>();
+  private final SqsVisibilityHeartbeat visibilityHeartbeat;
+  private final AtomicInteger retriedDeletes = new AtomicInteger();
+  private final AtomicInteger failedDeletes = new AtomicInteger();
 
   private static final int SQS_DELETE_BATCH_LIMIT = 10;
 
-  public SqsMessageHandler(Config config) {
-    sqsClient = new AmazonSQSClient();
+  static final String SENT_TIMESTAMP = "SentTimestamp";
+  static final String APPROXIMATE_FIRST_RECEIVE_TIMESTAMP = "ApproximateFirstReceiveTimestamp";
+  static final String APPROXIMATE_RECEIVE_COUNT = "ApproximateReceiveCount";
+  private static final long DELETE_RETRY_BASE_MS = 100;
+  private static final long DELETE_RETRY_MAX_MS = 5000;
+  private static final long DELETE_RETRY_RESERVE_MS = 1000;
+  private static final int SQS_RECEIVE_BATCH_LIMIT = 10;
+  private static final long RECEIVE_QUEUE_POLL_MS = 50;
+  private static final long RECEIVE_STOP_POLL_MS = 10;
+
+  public SqsMessageHandler(Config config, Context context) {
+    this(config, context, ContainerResources.get(config).getSqsClient());
+  }
+
+  SqsMessageHandler(Config config, Context context, AmazonSQS sqsClient) {
+    this.sqsClient = sqsClient;
     this.config = config;
+    this.context = context;
+    this.resources = ContainerResources.get(config);
+    this.visibilityHeartbeat = config.getSqsVisibilityTimeoutSeconds() > 0
+        ? new SqsVisibilityHeartbeat(config, sqsClient, context.getLogger(),
+            resources.getHeartbeatScheduler()) : null;
+  }
+
+  /**
+   * Starts the configured number of poller threads, which receive messages in the background
+   * and hand them over to {@link #readMessages()} through a bounded queue. With a single
+   * receive thread and prefetching enabled the next batch is received while the current one
+   * is processed. Otherwise nothing is started and every read is a blocking SQS call.
+   * @param hasTimeForMoreMessages Checked before every background or repeated receive call.
+   */
+  public void startReceiving(BooleanSupplier hasTimeForMoreMessages) {
+    if (receiving || prefetchExecutor != null) {
+      return;
+    }
+    this.hasTimeForMoreMessages = hasTimeForMoreMessages;
+    if (visibilityHeartbeat != null) {
+      visibilityHeartbeat.start();
+    }
+    int threadCount = config.getSqsReceiveThreads();
+    if (threadCount <= 1) {
+      if (config.isSqsReceivePrefetchEnabled()) {
+        prefetchExecutor = resources.getReceiveExecutor();
+      }
+      return;
+    }
+
+    int queueBatches = config.getSqsReceiveQueueBatches() > 0
+        ? config.getSqsReceiveQueueBatches() : threadCount;
+    receivedBatches = new ArrayBlockingQueue<>(queueBatches);
+    ExecutorService receiveExecutor = resources.getReceiveExecutor();
+    receiving = true;
+
+    activePollers.set(threadCount);
+    for (int i = 0; i < threadCount; i++) {
+      receiveExecutor.execute(() -> pollMessages(hasTimeForMoreMessages));
+    }
   }
 
   /**
-   * Reads the next messages from the queue.
-   * @return The read messages.
+   * Stops the poller threads. Messages which have already been received, but not been read,
+   * are made visible again right away.
+   */
+  public void stopReceiving() {
+    if (prefetchExecutor != null) {
+      // The pending receive may already have received a batch, cancelling it would lose the
+      // batch. It is awaited instead, at most for the long polling wait, and its batch is
+      // released.
+      if (prefetchedMessages != null) {
+        try {
+          releaseMessages(prefetchedMessages.get());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (ExecutionException expected) {
+          // Nothing has been received.
+        }
+      }
+      prefetchExecutor = null;
+      prefetchedMessages = null;
+    }
+    if (!receiving) {
+      return;
+    }
+    receiving = false;
+    // The receive threads are shared by the container, so the pollers are interrupted instead
+    // of shutting the executor down. Pollers, which haven't started yet, exit immediately.
+    pollerThreads.forEach(Thread::interrupt);
+    long stopDeadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+    while (activePollers.get() > 0 && System.currentTimeMillis() < stopDeadline) {
+      if (!Backoff.sleep(RECEIVE_STOP_POLL_MS)) {
+        break;
+      }
+    }
+    List<MessageHolder> unreadMessages = new ArrayList<>();
+    List<MessageHolder> batch;
+    while ((batch = receivedBatches.poll()) != null) {
+      unreadMessages.addAll(batch);
+    }
+    while ((batch = droppedBatches.poll()) != null) {
+      unreadMessages.addAll(batch);
+    }
+    releaseMessages(unreadMessages);
+  }
+
+  /**
+   * Stops extending the visibility timeout of messages, which have not been deleted. Must be
+   * called at the end of the invocation.
+   */
+  public void stopHeartbeat() {
+    if (visibilityHeartbeat != null) {
+      visibilityHeartbeat.stop();
+    }
+  }
+
+  /**
+   * Hands received, but unread messages back to the queue. They are no longer extended by the
+   * heartbeat and their visibility timeout is reset, so they don't stay invisible for the full
+   * visibility timeout.
+   * @param messages Unread messages.
+   */
+  private void releaseMessages(List<MessageHolder> messages) {
+    if (messages.isEmpty()) {
+      return;
+    }
+    List<String> receiptHandles = new ArrayList<>(messages.size());
+    messages.forEach(message -> receiptHandles.add(message.getMessageId()));
+    if (visibilityHeartbeat != null) {
+      visibilityHeartbeat.untrack(receiptHandles);
+    }
+    int released = 0;
+    for (int i = 0; i < receiptHandles.size(); i += SQS_RECEIVE_BATCH_LIMIT) {
+      List<String> handles = receiptHandles.subList(i,
+          Math.min(i + SQS_RECEIVE_BATCH_LIMIT, receiptHandles.size()));
+      List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>(handles.size());
+      for (int j = 0; j < handles.size(); j++) {
+        entries.add(new ChangeMessageVisibilityBatchRequestEntry(Integer.toString(j),
+            handles.get(j)).withVisibilityTimeout(0));
+      }
+      try {
+        ChangeMessageVisibilityBatchResult result = sqsClient.changeMessageVisibilityBatch(
+            new ChangeMessageVisibilityBatchRequest(config.getSqsSourceQueue(), entries));
+        released += result.getSuccessful().size();
+      } catch (AmazonClientException e) {
+        // The messages become visible again after the visibility timeout.
+        context.getLogger().log("Error releasing unread messages. " + e.getMessage()
+            + System.lineSeparator());
+      }
+    }
+    if (config.isDebug()) {
+      context.getLogger().log("Released \"" + released + "\" of \"" + messages.size()
+          + "\" unread messages." + System.lineSeparator());
+    }
+  }
+
+  /**
+   * Number of received messages, whose visibility timeout is extended by the heartbeat.
+   * @return Tracked messages.
+   */
+  int getTrackedMessageCount() {
+    return visibilityHeartbeat == null ? 0 : visibilityHeartbeat.getTrackedCount();
+  }
+
+  /**
+   * Reads the next messages from the queue. If the pollers have been started the messages are
+   * taken from the hand-off queue, otherwise they are received directly.
+   * @return The read messages, an empty list if the queue has been drained.
    */
   public List<MessageHolder> readMessages() {
-    ReceiveMessageRequest request = new ReceiveMessageRequest(config.getSqsSourceQueue());
-    request.setMaxNumberOfMessages(10);
-    ReceiveMessageResult result = sqsClient.receiveMessage(request);
+    if (prefetchExecutor != null) {
+      return readPrefetchedMessages();
+    }
+    if (!receiving) {
+      return receiveMessages();
+    }
 
-    List<MessageHolder> messages = mapReceivedMessages(result.getMessages());
+    try {
+      while (true) {
+        List<MessageHolder> messages =
+            receivedBatches.poll(RECEIVE_QUEUE_POLL_MS, TimeUnit.MILLISECONDS);
+        if (messages != null) {
+          return messages;
+        }
+        if (activePollers.get() == 0) {
+          messages = receivedBatches.poll();
+          if (messages == null && receiveFailure != null) {
+            throw receiveFailure;
+          }
+          return messages != null ? messages : new ArrayList<>();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return new ArrayList<>();
+    }
+  }
 
+  /**
+   * Returns the batch, which has been received in the background, and directly sends the
+   * receive request for the following batch.
+   * @return The read messages, an empty list if the queue has been drained.
+   */
+  private List<MessageHolder> readPrefetchedMessages() {
+    List<MessageHolder> messages;
+    if (prefetchedMessages == null) {
+      messages = receiveMessages();
+    } else {
+      try {
+        messages = prefetchedMessages.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return new ArrayList<>();
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        throw new IllegalStateException(e.getCause());
+      } finally {
+        prefetchedMessages = null;
+      }
+    }
+
+    if (!messages.isEmpty() && hasTimeForMoreMessages.getAsBoolean()) {
+      prefetchedMessages = prefetchExecutor.submit(this::receiveMessages);
+    }
     return messages;
   }
 
   /**
-   * Delete the messages from the queue after being read.
+   * Receives messages until the queue seems to be drained, the time is up or the handler
+   * has been stopped.
+   * @param hasTimeForMoreMessages Time budget of the invocation.
+   */
+  private void pollMessages(BooleanSupplier hasTimeForMoreMessages) {
+    pollerThreads.add(Thread.currentThread());
+    List<MessageHolder> messages = null;
+    try {
+      while (receiving && hasTimeForMoreMessages.getAsBoolean()) {
+        messages = receiveMessages();
+        if (messages.isEmpty()) {
+          return;
+        }
+        while (!receivedBatches.offer(messages, RECEIVE_QUEUE_POLL_MS, TimeUnit.MILLISECONDS)) {
+          if (!receiving) {
+            // Released by stopReceiving(), once all pollers have stopped.
+            droppedBatches.add(messages);
+            return;
+          }
+        }
+        messages = null;
+      }
+    } catch (InterruptedException expected) {
+      // Stopped by stopReceiving().
+      if (messages != null) {
+        droppedBatches.add(messages);
+      }
+    } catch (RuntimeException e) {
+      if (receiving) {
+        receiveFailure = e;
+      }
+    } finally {
+      pollerThreads.remove(Thread.currentThread());
+      activePollers.decrementAndGet();
+    }
+  }
+
+  /**
+   * Receives the next batch. A single empty response does not mean that the queue has been
+   * drained, therefore the receive is repeated until the configured number of consecutive empty
+   * responses has been reached. With the approximate count check enabled the queue is only
+   * considered drained when SQS reports no more visible messages.
+   * @return The received messages, an empty list if the queue has been drained.
+   */
+  private List<MessageHolder> receiveMessages() {
+    int emptyReceives = 0;
+    while (true) {
+      ReceiveMessageRequest request = new ReceiveMessageRequest(config.getSqsSourceQueue());
+      request.setMaxNumberOfMessages(SQS_RECEIVE_BATCH_LIMIT);
+      request.setWaitTimeSeconds(getReceiveWaitTimeSeconds());
+      if (config.getSqsVisibilityTimeoutSeconds() > 0) {
+        request.setVisibilityTimeout(config.getSqsVisibilityTimeoutSeconds());
+      }
+      request.withAttributeNames(SENT_TIMESTAMP, APPROXIMATE_FIRST_RECEIVE_TIMESTAMP,
+          APPROXIMATE_RECEIVE_COUNT);
+      if (ConfigurationInitializer.S3_PARTITION_KEY_SOURCE_ATTRIBUTE.equals(
+          config.getS3PartitionKeySource())) {
+        request.withMessageAttributeNames(config.getS3PartitionKey());
+      }
+      // Taken before the call, so the expiry is rather too early than too late.
+      long visibleAgainAtMs =
+          System.currentTimeMillis() + config.getSqsVisibilityTimeoutSeconds() * 1000L;
+      ReceiveMessageResult result = sqsClient.receiveMessage(request);
+
+      if (!result.getMessages().isEmpty()) {
+        List<MessageHolder> messages = mapReceivedMessages(result.getMessages());
+        if (visibilityHeartbeat != null) {
+          messages.forEach(message -> message.setVisibleAgainAtMs(visibleAgainAtMs));
+          visibilityHeartbeat.track(messages);
+        }
+        return messages;
+      }
+
+      emptyReceives++;
+      if (emptyReceives >= config.getSqsReceiveMaxEmptyReceives()) {
+        if (!config.isSqsReceiveCheckApproximateCount() || getApproximateMessageCount() == 0) {
+          return new ArrayList<>();
+        }
+        emptyReceives = 0;
+      }
+      if (!hasTimeForMoreMessages.getAsBoolean()) {
+        return new ArrayList<>();
+      }
+    }
+  }
+
+  /**
+   * Long polling waits up to the configured time, but never longer than the remaining time
+   * budget of the invocation.
+   * @return The wait time for the next receive call in seconds.
+   */
+  private int getReceiveWaitTimeSeconds() {
+    int budgetSeconds = (int) (getRemainingBudgetMs() / 1000);
+    return Math.max(0, Math.min(config.getSqsReceiveWaitTimeSeconds(), budgetSeconds));
+  }
+
+  private int getApproximateMessageCount() {
+    GetQueueAttributesRequest request = new GetQueueAttributesRequest(config.getSqsSourceQueue())
+        .withAttributeNames(QueueAttributeName.ApproximateNumberOfMessages);
+    GetQueueAttributesResult result = sqsClient.getQueueAttributes(request);
+    String count = result.getAttributes()
+        .get(QueueAttributeName.ApproximateNumberOfMessages.toString());
+    try {
+      return count == null ? 0 : Integer.parseInt(count);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Remaining time of the invocation for receiving messages. With the predictive time budget
+   * the predicted time for finishing the open files is kept free instead of the fixed time.
+   * @return Remaining milliseconds, may be negative.
+   */
+  private long getRemainingBudgetMs() {
+    if (timeBudget != null) {
+      return timeBudget.getRemainingBudgetMs(context.getRemainingTimeInMillis());
+    }
+    return (long) context.getRemainingTimeInMillis() - config.getLambdaMaxRemainingTimeMs();
+  }
+
+  private boolean hasTimeLeft() {
+    return getRemainingBudgetMs() > 0;
+  }
+
+  /**
+   * Deletes the messages from the queue after being read. The deletion runs asynchronously,
+   * {@link #awaitDeletions()} must be called before the invocation ends.
    * @param messageIds Message references of the messages to be deleted.
    */
   public void deleteMessages(List<String> messageIds) {
@@ -72,45 +449,155 @@ public class SqsMessageHandler {
     if (messageIds == null || messageIds.size() == 0) {
       return;
     }
+    if (visibilityHeartbeat != null) {
+      visibilityHeartbeat.untrack(messageIds);
+    }
 
-    final AtomicInteger idCounter = new AtomicInteger();
+    ExecutorService executor = resources.getDeletionExecutor();
 
-    Function<String,DeleteMessageBatchRequestEntry> mapMessageId = messageId -> {
-      DeleteMessageBatchRequestEntry entry =
-          new DeleteMessageBatchRequestEntry(
-              Integer.toString(idCounter.incrementAndGet()), messageId);
-      return entry;
-    };
+    for (int i = 0; i < messageIds.size(); i += SQS_DELETE_BATCH_LIMIT) {
+      List<String> batch =
+          messageIds.subList(i, Math.min(i + SQS_DELETE_BATCH_LIMIT, messageIds.size()));
 
-    ExecutorService executor = Executors.newFixedThreadPool(config.getSqsDeletionThreads());
+      List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>(batch.size());
+      for (int j = 0; j < batch.size(); j++) {
+        entries.add(new DeleteMessageBatchRequestEntry(Integer.toString(j), batch.get(j)));
+      }
 
-    for (int i = 0; i < messageIds.size(); i += SQS_DELETE_BATCH_LIMIT) {
+      final TimeBudgetScheduler budget = timeBudget;
+      if (budget != null) {
+        budget.deletionQueued();
+      }
+      pendingDeletions.add(executor.submit(() -> {
+        try {
+          deleteMessageBatch(entries);
+        } finally {
+          if (budget != null) {
+            budget.deletionFinished();
+          }
+        }
+      }));
+    }
+  }
+
+  /**
+   * Deletes a single batch. Entries SQS failed to delete are retried with jittered backoff as
+   * long as the remaining Lambda time allows it, otherwise they would be delivered and written
+   * to S3 again after the visibility timeout.
+   * @param entries Batch entries, at most ten.
+   */
+  private void deleteMessageBatch(List<DeleteMessageBatchRequestEntry> entries) {
+    List<DeleteMessageBatchRequestEntry> remaining = entries;
+    int attempt = 0;
+    while (true) {
+      List<DeleteMessageBatchRequestEntry> retryable = new ArrayList<>();
+      int permanent = 0;
+      try {
+        long startMs = System.currentTimeMillis();
+        DeleteMessageBatchResult result = sqsClient.deleteMessageBatch(
+            new DeleteMessageBatchRequest(config.getSqsSourceQueue(), remaining));
+        if (timeBudget != null) {
+          timeBudget.recordDelete(System.currentTimeMillis() - startMs);
+        }
 
-      List<DeleteMessageBatchRequestEntry> entries = messageIds
-          .stream()
-          .skip(i)
-          .limit(SQS_DELETE_BATCH_LIMIT)
-          .map(mapMessageId)
-          .collect(Collectors.toList());
+        Map<String, DeleteMessageBatchRequestEntry> entriesById = new HashMap<>();
+        remaining.forEach(entry -> entriesById.put(entry.getId(), entry));
+        for (BatchResultErrorEntry error : result.getFailed()) {
+          // Sender faults like invalid receipt handles won't succeed on a retry.
+          if (Boolean.TRUE.equals(error.getSenderFault())) {
+            permanent++;
+          } else if (entriesById.containsKey(error.getId())) {
+            retryable.add(entriesById.get(error.getId()));
+          }
+        }
+      } catch (AmazonClientException e) {
+        if (!e.isRetryable()) {
+          failedDeletes.addAndGet(remaining.size());
+          throw e;
+        }
+        retryable = remaining;
+      }
+      failedDeletes.addAndGet(permanent);
 
-      executor.execute(
-          () -> { sqsClient.deleteMessageBatch(config.getSqsSourceQueue(), entries); }
-      );
+      if (retryable.isEmpty()) {
+        return;
+      }
+      long delayMs = Backoff.jitteredDelayMs(attempt, DELETE_RETRY_BASE_MS, DELETE_RETRY_MAX_MS);
+      if (attempt >= config.getSqsDeletionMaxRetries()
+          || context.getRemainingTimeInMillis() - delayMs < DELETE_RETRY_RESERVE_MS
+          || !Backoff.sleep(delayMs)) {
+        failedDeletes.addAndGet(retryable.size());
+        return;
+      }
+      retriedDeletes.addAndGet(retryable.size());
+      remaining = retryable;
+      attempt++;
     }
+  }
 
-    executor.shutdown();
-    try {
-      executor.awaitTermination(1, TimeUnit.HOURS);
-    } catch (InterruptedException expected) {
-      // The timeout is longer than the Lambda life-time.
+  /**
+   * Reports the latencies of the deletions to the time budget of the invocation.
+   * @param timeBudget Time budget or null.
+   */
+  void setTimeBudget(TimeBudgetScheduler timeBudget) {
+    this.timeBudget = timeBudget;
+  }
+
+  /**
+   * Waits until all deletions started by this handler have been processed.
+   */
+  public void awaitDeletions() {
+    for (Future<?> deletion : pendingDeletions) {
+      try {
+        deletion.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (ExecutionException e) {
+        context.getLogger().log("Error deleting messages.\n" + e.getCause().getMessage()
+            + System.lineSeparator());
+      }
+    }
+    pendingDeletions.clear();
+
+    if (failedDeletes.get() > 0 || (config.isDebug() && retriedDeletes.get() > 0)) {
+      context.getLogger().log("Retried \"" + retriedDeletes.get() + "\" message deletions, \""
+          + failedDeletes.get() + "\" messages could not be deleted." + System.lineSeparator());
     }
   }
 
+  /**
+   * Number of message deletions, which have been retried after a failed batch entry.
+   * @return Retried deletions.
+   */
+  public int getRetriedDeletes() {
+    return retriedDeletes.get();
+  }
+
+  /**
+   * Number of messages, which could not be deleted and will be delivered again.
+   * @return Permanently failed deletions.
+   */
+  public int getFailedDeletes() {
+    return failedDeletes.get();
+  }
+
   private List<MessageHolder> mapReceivedMessages(List<Message> receivedMessages) {
     Function<Message,MessageHolder> mapMessages = message -> {
       MessageHolder holder = new MessageHolder();
       holder.setMessage(message.getBody());
       holder.setMessageId(message.getReceiptHandle());
+      holder.setSqsMessageId(message.getMessageId());
+      holder.setAttributes(message.getAttributes());
+      if (message.getMessageAttributes() != null && !message.getMessageAttributes().isEmpty()) {
+        Map<String, String> attributes = new HashMap<>();
+        message.getMessageAttributes().forEach((name, value) -> {
+          if (value.getStringValue() != null) {
+            attributes.put(name, value.getStringValue());
+          }
+        });
+        holder.setMessageAttributes(attributes);
+      }
       return holder;
     };
 
@@ -121,9 +608,17 @@ public class SqsMessageHandler {
     return messages;
   }
 
-  public class MessageHolder {
+  /**
+   * A received message. The message id holds the receipt handle, which is required for
+   * deleting the message, the SQS message id identifies the message in batch responses.
+   */
+  public static class MessageHolder {
     private String message;
     private String messageId;
+    private String sqsMessageId;
+    private Map<String, String> messageAttributes;
+    private Map<String, String> attributes;
+    private volatile long visibleAgainAtMs;
 
     public String getMessage() {
       return message;
@@ -140,5 +635,61 @@ public class SqsMessageHandler {
     public void setMessageId(String messageId) {
       this.messageId = messageId;
     }
+
+    public String getSqsMessageId() {
+      return sqsMessageId;
+    }
+
+    public void setSqsMessageId(String sqsMessageId) {
+      this.sqsMessageId = sqsMessageId;
+    }
+
+    /**
+     * Returns the string values of the requested message attributes.
+     * @return Attributes by name, null if none have been requested or received.
+     */
+    public Map<String, String> getMessageAttributes() {
+      return messageAttributes;
+    }
+
+    public void setMessageAttributes(Map<String, String> messageAttributes) {
+      this.messageAttributes = messageAttributes;
+    }
+
+    /**
+     * Returns the system attributes like "SentTimestamp" or "ApproximateReceiveCount".
+     * @return Attributes by name, may be null.
+     */
+    public Map<String, String> getAttributes() {
+      return attributes;
+    }
+
+    public void setAttributes(Map<String, String> attributes) {
+      this.attributes = attributes;
+    }
+
+    /**
+     * Returns the time the message has been sent to the queue.
+     * @return Epoch milliseconds or -1 if unknown.
+     */
+    public long getSentTimestampMs() {
+      String sentTimestamp = attributes == null ? null : attributes.get(SENT_TIMESTAMP);
+      if (sentTimestamp != null) {
+        try {
+          return Long.parseLong(sentTimestamp);
+        } catch (NumberFormatException expected) {
+          // Treated as unknown.
+        }
+      }
+      return -1;
+    }
+
+    public long getVisibleAgainAtMs() {
+      return visibleAgainAtMs;
+    }
+
+    public void setVisibleAgainAtMs(long visibleAgainAtMs) {
+      this.visibleAgainAtMs = visibleAgainAtMs;
+    }
   }
 }
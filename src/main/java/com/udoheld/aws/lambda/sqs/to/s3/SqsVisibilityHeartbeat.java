@@ -0,0 +1,153 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.Config;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extends the visibility timeout of received messages, which have not been deleted yet, shortly
+ * before it expires. Otherwise messages buffered for a large file or a slow upload would become
+ * visible again and be transferred a second time by another invocation.
+ *
+ * @author Udo Held
+ */
+class SqsVisibilityHeartbeat {
+
+  private static final int SQS_BATCH_LIMIT = 10;
+
+  private final Config config;
+  private final AmazonSQS sqsClient;
+  private final LambdaLogger log;
+  private final Map<String, SqsMessageHandler.MessageHolder> inFlightMessages =
+      new ConcurrentHashMap<>();
+  private final ScheduledExecutorService scheduler;
+  private ScheduledFuture<?> heartbeat;
+
+  SqsVisibilityHeartbeat(Config config, AmazonSQS sqsClient, LambdaLogger log,
+                         ScheduledExecutorService scheduler) {
+    this.config = config;
+    this.sqsClient = sqsClient;
+    this.log = log;
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * Starts the background heartbeat. It checks the messages twice per configured margin.
+   */
+  synchronized void start() {
+    if (heartbeat != null) {
+      return;
+    }
+    long periodMs = Math.max(500, getMarginMs() / 2);
+    heartbeat = scheduler.scheduleWithFixedDelay(this::extendExpiringMessages, periodMs, periodMs,
+        TimeUnit.MILLISECONDS);
+  }
+
+  synchronized void stop() {
+    if (heartbeat != null) {
+      // The scheduler is shared by the container, only this heartbeat is cancelled.
+      heartbeat.cancel(true);
+      heartbeat = null;
+    }
+    inFlightMessages.clear();
+  }
+
+  void track(List<SqsMessageHandler.MessageHolder> messages) {
+    messages.forEach(message -> inFlightMessages.put(message.getMessageId(), message));
+  }
+
+  void untrack(List<String> receiptHandles) {
+    receiptHandles.forEach(inFlightMessages::remove);
+  }
+
+  int getTrackedCount() {
+    return inFlightMessages.size();
+  }
+
+  /**
+   * Sends ChangeMessageVisibilityBatch requests for all messages, which become visible again
+   * within the configured margin.
+   */
+  void extendExpiringMessages() {
+    long expiryLimit = System.currentTimeMillis() + getMarginMs();
+    List<SqsMessageHandler.MessageHolder> expiring = new ArrayList<>();
+    for (SqsMessageHandler.MessageHolder message : inFlightMessages.values()) {
+      if (message.getVisibleAgainAtMs() <= expiryLimit) {
+        expiring.add(message);
+      }
+    }
+
+    for (int i = 0; i < expiring.size(); i += SQS_BATCH_LIMIT) {
+      try {
+        extendVisibility(expiring.subList(i, Math.min(i + SQS_BATCH_LIMIT, expiring.size())));
+      } catch (AmazonClientException e) {
+        log.log("Error extending the visibility timeout. " + e.getMessage()
+            + System.lineSeparator());
+      }
+    }
+  }
+
+  private void extendVisibility(List<SqsMessageHandler.MessageHolder> messages) {
+    int timeoutSeconds = config.getSqsVisibilityTimeoutSeconds();
+    List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>(messages.size());
+    for (int i = 0; i < messages.size(); i++) {
+      entries.add(new ChangeMessageVisibilityBatchRequestEntry(Integer.toString(i),
+          messages.get(i).getMessageId()).withVisibilityTimeout(timeoutSeconds));
+    }
+
+    long visibleAgainAtMs = System.currentTimeMillis() + timeoutSeconds * 1000L;
+    ChangeMessageVisibilityBatchResult result = sqsClient.changeMessageVisibilityBatch(
+        new ChangeMessageVisibilityBatchRequest(config.getSqsSourceQueue(), entries));
+
+    Set<String> failedIds = new HashSet<>();
+    for (BatchResultErrorEntry error : result.getFailed()) {
+      failedIds.add(error.getId());
+    }
+    for (int i = 0; i < messages.size(); i++) {
+      if (!failedIds.contains(Integer.toString(i))) {
+        messages.get(i).setVisibleAgainAtMs(visibleAgainAtMs);
+      }
+    }
+    if (config.isDebug()) {
+      log.log("Extended the visibility timeout of \"" + (messages.size() - failedIds.size())
+          + "\" messages, \"" + failedIds.size() + "\" failed." + System.lineSeparator());
+    }
+  }
+
+  private long getMarginMs() {
+    return config.getSqsVisibilityHeartbeatMarginSeconds() * 1000L;
+  }
+}
@@ -0,0 +1,181 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.Config;
+
+/**
+ * Decides if there is time for more messages by predicting the cost of finishing the open
+ * files from the receive, upload, complete and delete latencies measured during the run.
+ * Messages are accepted until the prediction plus a safety margin reaches the deadline,
+ * instead of stopping at a fixed share of the Lambda time.
+ *
+ * <p>The latencies are exponentially weighted moving averages, starting with conservative
+ * estimates until the first requests have been measured. The writer updates the state of the
+ * open files, the SQS pollers only read the resulting prediction. Deletion batches, which are
+ * still running, and the current limit of the adaptive upload concurrency are part of the
+ * prediction as well.</p>
+ *
+ * @author Udo Held
+ */
+final class TimeBudgetScheduler {
+
+  private static final double LATENCY_WEIGHT = 0.2;
+  private static final double MB = 1024 * 1024;
+  private static final long MIN_SAFETY_MARGIN_MS = 1500;
+  private static final double SAFETY_MARGIN_SHARE = 0.25;
+  private static final int SQS_DELETE_BATCH_LIMIT = 10;
+
+  private static final double INITIAL_UPLOAD_MS_PER_MB = 200;
+  private static final double INITIAL_COMPLETE_MS = 500;
+  private static final double INITIAL_DELETE_MS = 200;
+  private static final double INITIAL_RECEIVE_OVERHEAD_MS = 200;
+
+  private final int uploadThreads;
+  private final UploadConcurrencyLimiter uploadLimiter;
+  private final int deletionThreads;
+
+  private double receiveMs;
+  private double uploadMsPerMb = INITIAL_UPLOAD_MS_PER_MB;
+  private double completeMs = INITIAL_COMPLETE_MS;
+  private double deleteMs = INITIAL_DELETE_MS;
+
+  private long pendingPartBytes;
+  private int pendingDeleteBatches;
+  private volatile long predictedFinishMs;
+
+  TimeBudgetScheduler(Config config) {
+    this(config, null);
+  }
+
+  /**
+   * Creates the scheduler.
+   * @param config Configuration.
+   * @param uploadLimiter Adaptive upload concurrency, null for the static thread count.
+   */
+  TimeBudgetScheduler(Config config, UploadConcurrencyLimiter uploadLimiter) {
+    this.uploadThreads = config.isS3UploadThreadsEnabled()
+        ? Math.max(config.getS3UploadThreadCount(), 1) : 1;
+    this.uploadLimiter = config.isS3UploadThreadsEnabled() ? uploadLimiter : null;
+    this.deletionThreads = Math.max(config.getSqsDeletionThreads(), 1);
+    this.receiveMs = config.getSqsReceiveWaitTimeSeconds() * 1000.0
+        + INITIAL_RECEIVE_OVERHEAD_MS;
+    this.predictedFinishMs = predict(0, 0, 0);
+  }
+
+  synchronized void recordReceive(long latencyMs) {
+    receiveMs = average(receiveMs, latencyMs);
+  }
+
+  synchronized void recordComplete(long latencyMs) {
+    completeMs = average(completeMs, latencyMs);
+  }
+
+  synchronized void recordDelete(long latencyMs) {
+    deleteMs = average(deleteMs, latencyMs);
+  }
+
+  /**
+   * Counts a part, which has been handed to the upload threads.
+   * @param bytes Part size.
+   */
+  synchronized void partQueued(long bytes) {
+    pendingPartBytes += bytes;
+  }
+
+  /**
+   * Records the upload of a queued part.
+   * @param bytes Part size.
+   * @param latencyMs Duration of the upload or -1 if it failed.
+   */
+  synchronized void partUploaded(long bytes, long latencyMs) {
+    pendingPartBytes -= bytes;
+    if (latencyMs >= 0 && bytes >= MB) {
+      uploadMsPerMb = average(uploadMsPerMb, latencyMs / (bytes / MB));
+    }
+  }
+
+  /**
+   * Counts a deletion batch, which has been handed to the deletion threads.
+   */
+  synchronized void deletionQueued() {
+    pendingDeleteBatches++;
+  }
+
+  /**
+   * Records the end of a queued deletion batch, successful or not.
+   */
+  synchronized void deletionFinished() {
+    pendingDeleteBatches--;
+  }
+
+  /**
+   * Updates the prediction with the state of the open files. Called by the writer.
+   * @param bufferedBytes Bytes buffered, but not uploaded yet.
+   * @param openFiles Files, which still have to be completed.
+   * @param openMessages Messages of the open files, which have to be deleted.
+   */
+  synchronized void update(long bufferedBytes, int openFiles, int openMessages) {
+    predictedFinishMs = predict(bufferedBytes, openFiles, openMessages);
+  }
+
+  /**
+   * Time needed to receive one more batch and to finish the open files.
+   * @return Predicted milliseconds.
+   */
+  long getPredictedFinishMs() {
+    return predictedFinishMs;
+  }
+
+  /**
+   * Checks if the remaining time covers the prediction and the safety margin.
+   * @param remainingTimeMs Remaining time of the Lambda.
+   * @return true if more messages can be accepted.
+   */
+  boolean hasTimeLeft(int remainingTimeMs) {
+    return getRemainingBudgetMs(remainingTimeMs) > 0;
+  }
+
+  /**
+   * Time left for receiving and writing messages before finishing the open files has to start.
+   * @param remainingTimeMs Remaining time of the Lambda.
+   * @return Remaining time minus the prediction and the safety margin, may be negative.
+   */
+  long getRemainingBudgetMs(int remainingTimeMs) {
+    long predicted = predictedFinishMs;
+    long margin = Math.max(MIN_SAFETY_MARGIN_MS, (long) (predicted * SAFETY_MARGIN_SHARE));
+    return remainingTimeMs - predicted - margin;
+  }
+
+  private long predict(long bufferedBytes, int openFiles, int openMessages) {
+    // Parts upload in parallel, but the files are completed one after the other. The adaptive
+    // limit may be below the thread count.
+    int uploadConcurrency = uploadLimiter != null ? uploadLimiter.getLimit() : uploadThreads;
+    double uploadMs =
+        (pendingPartBytes + bufferedBytes) / MB * uploadMsPerMb / uploadConcurrency;
+    int deleteBatches = pendingDeleteBatches
+        + (openMessages + SQS_DELETE_BATCH_LIMIT - 1) / SQS_DELETE_BATCH_LIMIT;
+    double deletionMs = Math.ceil((double) deleteBatches / deletionThreads) * deleteMs;
+    return (long) (receiveMs + uploadMs + openFiles * completeMs + deletionMs);
+  }
+
+  private static double average(double average, double sample) {
+    return average + LATENCY_WEIGHT * (sample - average);
+  }
+}
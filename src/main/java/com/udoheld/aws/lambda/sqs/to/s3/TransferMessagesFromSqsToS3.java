@@ -18,22 +18,36 @@
 
 package com.udoheld.aws.lambda.sqs.to.s3;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.AutoTuner;
 import com.udoheld.aws.lambda.sqs.to.s3.cfg.Config;
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.ConfigurationInitializer;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.time.DateTimeException;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
- * Transfers messages from SQS to S3.
+ * Transfers messages from SQS to S3. With a configured partition key each partition is written
+ * to its own files below a Hive-style key prefix, with an event time window each window of the
+ * SQS sent timestamps is written to its own files.
  *
  * @author Udo Held
  */
@@ -42,24 +56,50 @@ public class TransferMessagesFromSqsToS3 {
   private final Config config;
   private final Context context;
   private SqsMessageHandler sqsMessageHandler;
-  private S3MultiPartFileHandler s3MultiPartFileHandler;
 
-  private int fileNumber = 0;
-  private int fileSize = 0;
+  private final Map<String, PartitionWriter> partitions = new LinkedHashMap<>();
+  private final Map<String, Integer> evictedFileNumbers = new HashMap<>();
+  private final Deque<PendingFile> pendingFiles = new ArrayDeque<>();
+  private final PartitionKeyExtractor partitionKeyExtractor;
+  private final ChronoUnit eventTimeWindow;
+  private final boolean partitioned;
+  private final TimeBudgetScheduler timeBudget;
 
-  private boolean firstRecordInFile = true;
-
-  private List<String> transferredMsgIds = new ArrayList<>();
   private List<SqsMessageHandler.MessageHolder> readMessagesL;
+  private final List<String> failedSqsMessageIds = new ArrayList<>();
+  private int observedMessages;
+  private long observedMessageBytes;
 
-  private ByteArrayOutputStream fileBufferOs = new ByteArrayOutputStream();
+  private final RecordFramer recordFramer;
+  private final boolean gzip;
+  private final byte[] compressionDictionary;
   private String baseFileName;
+  private String invocationId;
+  private DateTimeFormatter fileDateFormatter;
+  private DateTimeFormatter windowDateFormatter;
+
+  private static final int COMPRESSION_BLOCK_SIZE = 256 * 1024;
+  private static final int PARALLEL_COMPRESSION_BLOCK_SIZE = 1024 * 1024;
+  private static final int S3_MINIMUM_PART_SIZE = 5 * 1024 * 1024;
+  private static final String FILE_DATE_SUB_PATTERN = "\".*\"";
+  private static final Instant WINDOW_PROBE = Instant.parse("2001-02-03T04:05:06.007Z");
 
   private static String lineSep = System.lineSeparator();
 
   private TransferMessagesFromSqsToS3(Config config, Context context) {
     this.config = config;
     this.context = context;
+    this.recordFramer = new RecordFramer(config);
+    this.partitionKeyExtractor = PartitionKeyExtractor.create(config);
+    this.eventTimeWindow = getEventTimeWindow(config.getS3EventTimeWindow());
+    this.partitioned = partitionKeyExtractor != null || eventTimeWindow != null;
+    this.timeBudget = config.isLambdaPredictiveTimeBudget()
+        ? new TimeBudgetScheduler(config, ContainerResources.get(config).getUploadLimiter())
+        : null;
+    this.gzip = ConfigurationInitializer.S3_COMPRESSION_GZIP.equals(config.getS3Compression());
+    String dictionary = config.getS3CompressionDictionary();
+    this.compressionDictionary = dictionary == null || dictionary.isEmpty() ? null
+        : CompressionDictionary.load(dictionary);
   }
 
   /**
@@ -73,17 +113,69 @@ public class TransferMessagesFromSqsToS3 {
     sqsToS3.transferMessages();
   }
 
+  /**
+   * Stores messages, which have been delivered by a Lambda SQS event source, in S3 files. The
+   * event source mapping deletes the messages, so nothing is deleted here. If a file can't be
+   * written or the time runs out the affected messages are reported as failed instead.
+   * @param config Configuration.
+   * @param context AWS Lambda context.
+   * @param messages Messages of the event.
+   * @return SQS message ids of the messages, which have not been stored.
+   */
+  public static List<String> transferMessagesToS3(Config config, Context context,
+                                                  List<SqsMessageHandler.MessageHolder> messages) {
+    TransferMessagesFromSqsToS3 sqsToS3
+        = new TransferMessagesFromSqsToS3(config, context);
+    return sqsToS3.transferEventMessages(messages);
+  }
+
+  private List<String> transferEventMessages(List<SqsMessageHandler.MessageHolder> messages) {
+    initBaseFileName();
+
+    try {
+      for (int i = 0; i < messages.size(); i++) {
+        if (!hasTimeForMoreMessages()) {
+          messages.subList(i, messages.size())
+              .forEach(message -> failedSqsMessageIds.add(message.getSqsMessageId()));
+          break;
+        }
+        processMessage(messages.get(i));
+      }
+      flushAllPartitions();
+    } finally {
+      drainPendingFiles();
+    }
+    recordObservedMessages();
+    return failedSqsMessageIds;
+  }
+
   private void transferMessages() {
     init();
 
-    while (hasTimeForMoreMessages() && readMessages()) {
-      processMessages();
+    try {
+      sqsMessageHandler.startReceiving(this::hasTimeLeft);
+      try {
+        while (hasTimeForMoreMessages() && readMessages()) {
+          processMessages();
+        }
+      } finally {
+        sqsMessageHandler.stopReceiving();
+      }
+      flushAllPartitions();
+      recordObservedMessages();
+    } finally {
+      // A failed file aborts the processing, the files completing in the background must not
+      // continue after the invocation has returned.
+      drainPendingFiles();
+      // Files are finalized before their messages are deleted in the background.
+      sqsMessageHandler.awaitDeletions();
+      sqsMessageHandler.stopHeartbeat();
     }
-    flushFileBufferToS3(true);
   }
 
   private void init() {
-    sqsMessageHandler = new SqsMessageHandler(config);
+    sqsMessageHandler = new SqsMessageHandler(config, context);
+    sqsMessageHandler.setTimeBudget(timeBudget);
     initBaseFileName();
   }
 
@@ -95,19 +187,96 @@ public class TransferMessagesFromSqsToS3 {
    * Examples are ""yyyy-MM-dd'T'HH:mm:ss"*.json" and "s3"dd/MM/yyyy hh:mm:ss aa"*.log".
    */
   private void initBaseFileName() {
-    String subPattern = "\".*\"";
-    String pattern = ".*(" + subPattern + ").*";
+    String pattern = ".*(" + FILE_DATE_SUB_PATTERN + ").*";
 
     Pattern logEntry = Pattern.compile(pattern);
     Matcher matchPattern = logEntry.matcher(config.getS3FilePattern());
 
+    String matchedGroup = null;
     if (matchPattern.find()) {
-      String matchedGroup = matchPattern.group(1).replaceFirst("\"","").replaceAll("\"$","");
+      matchedGroup = matchPattern.group(1).replaceFirst("\"","").replaceAll("\"$","");
+
+      fileDateFormatter = DateTimeFormatter.ofPattern(matchedGroup).withZone(ZoneOffset.UTC);
+    }
+    baseFileName = formatFileName(Instant.now());
+    invocationId = context.getAwsRequestId() != null ? context.getAwsRequestId()
+        : Long.toString(System.currentTimeMillis(), 36);
+    if (eventTimeWindow != null && !fileDateIdentifiesWindow(matchedGroup)) {
+      windowDateFormatter = DateTimeFormatter.ofPattern(
+          eventTimeWindow == ChronoUnit.DAYS ? "yyyyMMdd"
+              : eventTimeWindow == ChronoUnit.HOURS ? "yyyyMMdd'T'HH" : "yyyyMMdd'T'HHmm")
+          .withZone(ZoneOffset.UTC);
+    }
+  }
+
+  /**
+   * Checks if the date of the file pattern distinguishes all event time windows. It has to
+   * contain every field down to the window's unit, e.g. the hour for hourly windows. The
+   * window start of a sample date is formatted and parsed back, fields finer than the window
+   * default to 0.
+   * @param datePattern Date format of the file pattern, null if there is none.
+   * @return true if windows always get different file names.
+   */
+  private boolean fileDateIdentifiesWindow(String datePattern) {
+    if (datePattern == null) {
+      return false;
+    }
+    DateTimeFormatterBuilder builder = new DateTimeFormatterBuilder().appendPattern(datePattern);
+    if (eventTimeWindow == ChronoUnit.DAYS) {
+      builder.parseDefaulting(ChronoField.HOUR_OF_DAY, 0);
+    }
+    if (eventTimeWindow != ChronoUnit.MINUTES) {
+      builder.parseDefaulting(ChronoField.MINUTE_OF_HOUR, 0);
+    }
+    builder.parseDefaulting(ChronoField.SECOND_OF_MINUTE, 0);
+    Instant windowStart = WINDOW_PROBE.truncatedTo(eventTimeWindow);
+    try {
+      return windowStart.equals(Instant.from(builder.toFormatter().withZone(ZoneOffset.UTC)
+          .parse(fileDateFormatter.format(windowStart))));
+    } catch (DateTimeException e) {
+      return false;
+    }
+  }
+
+  private String formatFileName(Instant date) {
+    if (fileDateFormatter == null) {
+      return config.getS3FilePattern();
+    }
+    return config.getS3FilePattern().replaceFirst(FILE_DATE_SUB_PATTERN,
+        Matcher.quoteReplacement(fileDateFormatter.format(date)));
+  }
+
+  /**
+   * Base file name of an event time window. Other invocations may write files of the same
+   * window, so the request id is added to the name. If the date of the file pattern doesn't
+   * distinguish the windows, the window start is added as well.
+   * @param windowStart Start of the window.
+   * @return Base file name with wildcard.
+   */
+  private String formatWindowFileName(Instant windowStart) {
+    String window = windowDateFormatter == null ? ""
+        : "-" + windowDateFormatter.format(windowStart);
+    return formatFileName(windowStart).replace("*", window + "-" + invocationId + "*");
+  }
 
-      DateTimeFormatter dtf = DateTimeFormatter.ofPattern(matchedGroup);
-      String curDate = dtf.withZone(ZoneOffset.UTC).format(Instant.now());
-      baseFileName = config.getS3FilePattern().replaceFirst(subPattern,curDate);
+  /**
+   * Passes the framed size of the messages to the auto tuning of the next invocations.
+   */
+  private void recordObservedMessages() {
+    if (config.isLambdaAutoTune()) {
+      AutoTuner.recordMessages(observedMessages, observedMessageBytes);
+    }
+  }
+
+  private static ChronoUnit getEventTimeWindow(String window) {
+    if (ConfigurationInitializer.S3_EVENT_TIME_WINDOW_DAY.equals(window)) {
+      return ChronoUnit.DAYS;
+    } else if (ConfigurationInitializer.S3_EVENT_TIME_WINDOW_HOUR.equals(window)) {
+      return ChronoUnit.HOURS;
+    } else if (ConfigurationInitializer.S3_EVENT_TIME_WINDOW_MINUTE.equals(window)) {
+      return ChronoUnit.MINUTES;
     }
+    return null;
   }
 
   /**
@@ -116,21 +285,60 @@ public class TransferMessagesFromSqsToS3 {
    * @return true if more messages can be processed.
    */
   private boolean hasTimeForMoreMessages() {
-    boolean hasMoreTime
-        = context.getRemainingTimeInMillis() > config.getLambdaMaxRemainingTimeMs();
+    if (timeBudget != null) {
+      updateTimeBudget();
+    }
+    boolean hasMoreTime = hasTimeLeft();
     if (!hasMoreTime && config.isDebug()) {
-      context.getLogger().log(
-          "Stopped processing further messages, because of lack of time." + lineSep);
+      context.getLogger().log("Stopped processing further messages, because of lack of time."
+          + (timeBudget != null ? " Finishing is predicted to take \""
+          + timeBudget.getPredictedFinishMs() + "\" ms." : "") + lineSep);
     }
     return hasMoreTime;
   }
 
+  /**
+   * Same check as {@link #hasTimeForMoreMessages()} without logging, used by the SQS pollers.
+   * @return true if more messages can be processed.
+   */
+  private boolean hasTimeLeft() {
+    if (timeBudget != null) {
+      return timeBudget.hasTimeLeft(context.getRemainingTimeInMillis());
+    }
+    return context.getRemainingTimeInMillis() > config.getLambdaMaxRemainingTimeMs();
+  }
+
+  /**
+   * Passes the buffered bytes and messages of the open files to the time budget.
+   */
+  private void updateTimeBudget() {
+    long bufferedBytes = 0;
+    int openFiles = 0;
+    int openMessages = 0;
+    for (PartitionWriter writer : partitions.values()) {
+      if (writer.hasMessages()) {
+        bufferedBytes += writer.bufferedSize();
+        openFiles++;
+        openMessages += writer.transferredMessages.size();
+      }
+    }
+    for (PendingFile pendingFile : pendingFiles) {
+      openFiles++;
+      openMessages += pendingFile.messages.size();
+    }
+    timeBudget.update(bufferedBytes, openFiles, openMessages);
+  }
+
   /**
    * Reads messages from SQS
    * @return true, if messages were present and have been read.
    */
   private boolean readMessages() {
+    long startMs = System.currentTimeMillis();
     readMessagesL = sqsMessageHandler.readMessages();
+    if (timeBudget != null) {
+      timeBudget.recordReceive(System.currentTimeMillis() - startMs);
+    }
     return readMessagesL != null && readMessagesL.size() > 0;
   }
 
@@ -140,127 +348,464 @@ public class TransferMessagesFromSqsToS3 {
   private void processMessages() {
     for (SqsMessageHandler.MessageHolder message : readMessagesL) {
       processMessage(message);
-      checkAndFlushFileBuffer();
     }
   }
 
   /**
-   * Reads a single message into the write buffer adding seperators.
+   * Writes a single message into the buffer of its partition and writes the partition's file
+   * if a threshold has been reached.
    * @param message Message to write.
    */
   private void processMessage(SqsMessageHandler.MessageHolder message) {
-    try {
-      // File initiator
-      if (firstRecordInFile && ! config.getS3FileInitiator().isEmpty()) {
-        fileBufferOs.write(config.getS3FileInitiator().getBytes());
+    String partitionPrefix = partitionKeyExtractor == null ? ""
+        : partitionKeyExtractor.getPartitionPrefix(message);
+    Instant windowStart = null;
+    String writerKey = partitionPrefix;
+    if (eventTimeWindow != null) {
+      long sentTimestampMs = message.getSentTimestampMs();
+      windowStart = (sentTimestampMs >= 0 ? Instant.ofEpochMilli(sentTimestampMs)
+          : Instant.now()).truncatedTo(eventTimeWindow);
+      writerKey = partitionPrefix + windowStart.toEpochMilli();
+    }
+    PartitionWriter writer = partitions.get(writerKey);
+    if (writer == null) {
+      writer = new PartitionWriter(writerKey, partitionPrefix,
+          windowStart == null ? baseFileName : formatWindowFileName(windowStart));
+      partitions.put(writerKey, writer);
+    }
+    if (!writer.hasMessages() && partitioned
+        && countOpenPartitions() >= config.getS3PartitionMaxOpen()) {
+      PartitionWriter largest = findLargestPartition();
+      if (config.isDebug()) {
+        context.getLogger().log("Too many open partitions, finalizing \""
+            + largest.partitionPrefix + largest.baseFileName + "\"." + lineSep);
       }
+      largest.flushFileBufferToS3(true);
+      evictIfIdle(largest);
+    }
+    writer.processMessage(message);
+    writer.checkAndFlushFileBuffer();
+    if (partitioned) {
+      checkPartitionBufferLimit();
+      evictIfIdle(writer);
+    }
+  }
 
-      // Record separator, for non first records
-      if (fileBufferOs.size() > 0 && ! firstRecordInFile
-          && ! config.getS3RecordSeparator().isEmpty()) {
-        fileBufferOs.write(config.getS3RecordSeparator().getBytes());
-      }
-      firstRecordInFile = false;
-      // Record initiator
-      if (! config.getS3RecordInitiator().isEmpty()) {
-        fileBufferOs.write(config.getS3RecordInitiator().getBytes());
+  /**
+   * Removes the writer of a partition once its file has been finalized, so the writers of
+   * closed windows and idle partitions don't pile up. The file number is kept for the
+   * partition's next writer.
+   * @param writer Partition writer.
+   */
+  private void evictIfIdle(PartitionWriter writer) {
+    if (writer.hasMessages() || writer.s3MultiPartFileHandler != null) {
+      return;
+    }
+    partitions.remove(writer.writerKey);
+    evictedFileNumbers.put(writer.writerKey, writer.fileNumber);
+    writer.release();
+  }
+
+  /**
+   * Writes the largest buffer if the partitions buffer more than the configured limit. It is
+   * uploaded as part if it is large enough, otherwise its file is finalized.
+   */
+  private void checkPartitionBufferLimit() {
+    long bufferedSize = 0;
+    for (PartitionWriter writer : partitions.values()) {
+      bufferedSize += writer.bufferedSize();
+    }
+    if (bufferedSize <= config.getS3PartitionMaxBufferKb() * 1024L) {
+      return;
+    }
+    PartitionWriter largest = findLargestPartition();
+    if (config.isDebug()) {
+      context.getLogger().log("Partitions buffer \"" + bufferedSize + "\"b, writing \""
+          + largest.partitionPrefix + largest.baseFileName + "\"." + lineSep);
+    }
+    largest.flushFileBufferToS3(largest.partSize() < S3_MINIMUM_PART_SIZE);
+    evictIfIdle(largest);
+  }
+
+  private int countOpenPartitions() {
+    int openPartitions = 0;
+    for (PartitionWriter writer : partitions.values()) {
+      if (writer.hasMessages()) {
+        openPartitions++;
       }
+    }
+    return openPartitions;
+  }
 
-      fileBufferOs.write(message.getMessage().getBytes());
-      // Record terminator
-      if (! config.getS3RecordTerminator().isEmpty()) {
-        fileBufferOs.write(config.getS3RecordTerminator().getBytes());
+  private PartitionWriter findLargestPartition() {
+    PartitionWriter largest = null;
+    for (PartitionWriter writer : partitions.values()) {
+      if (writer.hasMessages()
+          && (largest == null || writer.bufferedSize() > largest.bufferedSize())) {
+        largest = writer;
       }
+    }
+    return largest;
+  }
 
-      transferredMsgIds.add(message.getMessageId());
+  private void flushAllPartitions() {
+    for (PartitionWriter writer : partitions.values()) {
+      writer.flushFileBufferToS3(true);
+    }
+    while (!pendingFiles.isEmpty()) {
+      completePendingFile(pendingFiles.removeFirst());
+    }
+  }
 
-    } catch (IOException expected) {
+  /**
+   * Completes the upload of a file and deletes its messages. Up to the configured number of
+   * files complete in the background, while the next file is written.
+   * @param handler Upload of the file.
+   * @param messages Messages of the file.
+   */
+  private void finalizeFileUpload(S3MultiPartFileHandler handler,
+                                  List<SqsMessageHandler.MessageHolder> messages) {
+    int maxPendingFiles = config.getS3FinalizeMaxPendingFiles();
+    if (maxPendingFiles <= 0) {
+      fileFinalized(messages, handler.finalizeMultipartUpload());
+      return;
+    }
+    // Files, which have completed in the meantime, release their messages early.
+    while (!pendingFiles.isEmpty() && pendingFiles.peekFirst().finalized.isDone()) {
+      completePendingFile(pendingFiles.removeFirst());
     }
+    while (pendingFiles.size() >= maxPendingFiles) {
+      completePendingFile(pendingFiles.removeFirst());
+    }
+    pendingFiles.addLast(new PendingFile(messages, ContainerResources.get(config)
+        .getFinalizeExecutor().submit(handler::finalizeMultipartUpload)));
+  }
+
+  private void completePendingFile(PendingFile pendingFile) {
+    fileFinalized(pendingFile.messages, awaitFinalized(pendingFile));
   }
 
   /**
-   * Checks if the message or file-size thresholds have been reached and writes file to S3.
+   * Waits for the files, which are still completing after the processing has been aborted.
+   * The messages of the files, which have been written, are deleted nonetheless.
    */
-  private void checkAndFlushFileBuffer() {
-    // Write file
-    if (transferredMsgIds.size() >= config.getS3MaxMessagesPerFile()
-        || fileSize + fileBufferOs.size() > config.getS3MaxFileSizeKb() * 1024) {
-      flushFileBufferToS3(true);
-      fileNumber++;
-    // Write part only
-    } else if (fileBufferOs.size() > config.getS3UploadPartSizeKb() * 1024) {
-      flushFileBufferToS3(false);
+  private void drainPendingFiles() {
+    while (!pendingFiles.isEmpty()) {
+      PendingFile pendingFile = pendingFiles.removeFirst();
+      if (awaitFinalized(pendingFile)) {
+        fileFinalized(pendingFile.messages, true);
+      } else if (sqsMessageHandler == null) {
+        fileFinalized(pendingFile.messages, false);
+      }
     }
   }
 
+  private boolean awaitFinalized(PendingFile pendingFile) {
+    try {
+      return pendingFile.finalized.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      context.getLogger().log("Error finalizing file. " + e.getCause().getMessage() + lineSep);
+    }
+    return false;
+  }
+
   /**
-   * Transfers the current message buffer to S3.
-   * @param finalizeFile Finalises the file, adding the file terminator and closing the
-   *                     MultiPartUpload.
+   * Deletes the messages of a finalized file. If the file couldn't be written the processing
+   * is aborted, in event source mode the messages are reported as failed instead.
+   * @param messages Messages of the file.
+   * @param success File has been written.
    */
-  private void flushFileBufferToS3(boolean finalizeFile) {
-    if (transferredMsgIds.size() == 0) {
-      if (config.isDebug()) {
-        context.getLogger().log("No messages to transfer." + lineSep);
+  private void fileFinalized(List<SqsMessageHandler.MessageHolder> messages, boolean success) {
+    if (!success) {
+      if (sqsMessageHandler != null) {
+        throw new AmazonS3Exception("Error during file uploading. Aborting processing.");
       }
+      context.getLogger().log("Error writing file, reporting \"" + messages.size()
+          + "\" messages as failed." + lineSep);
+      messages.forEach(message -> failedSqsMessageIds.add(message.getSqsMessageId()));
       return;
     }
+    if (sqsMessageHandler != null) {
+      List<String> messageIds = new ArrayList<>(messages.size());
+      messages.forEach(message -> messageIds.add(message.getMessageId()));
+      sqsMessageHandler.deleteMessages(messageIds);
+    }
+  }
 
-    if (config.isDebug()) {
-      context.getLogger().log("Writing file to S3 with size \"" + fileBufferOs.size()
-          + "\"b with \"" + transferredMsgIds.size() + "\" messages." + lineSep);
+  private PartBuffer newPartBuffer() {
+    return ConfigurationInitializer.S3_PART_CHECKSUM_CRC32C.equals(config.getS3PartChecksum())
+        ? new PartBuffer(PartBuffer.ChecksumType.CRC32C) : new PartBuffer();
+  }
+
+  /**
+   * Writes the files of a partition, one file at a time. The buffers only hold chunks while
+   * the partition has an open file.
+   */
+  private class PartitionWriter {
+    private final String writerKey;
+    private final String partitionPrefix;
+    private final String baseFileName;
+    private S3MultiPartFileHandler s3MultiPartFileHandler;
+
+    private int fileNumber;
+    private long fileSize = 0;
+    private int filePartCount = 0;
+
+    private boolean firstRecordInFile = true;
+
+    private List<SqsMessageHandler.MessageHolder> transferredMessages = new ArrayList<>();
+
+    private PartBuffer fileBufferOs;
+    private PartBuffer compressedBuffer;
+    private final PartCompressor compressor;
+    private final ParallelPartCompressor parallelCompressor;
+
+    PartitionWriter(String writerKey, String partitionPrefix, String baseFileName) {
+      this.writerKey = writerKey;
+      this.partitionPrefix = partitionPrefix;
+      this.baseFileName = baseFileName;
+      this.fileNumber = evictedFileNumbers.getOrDefault(writerKey, 0);
+      if (gzip
+          || ConfigurationInitializer.S3_COMPRESSION_ZLIB.equals(config.getS3Compression())) {
+        this.compressor = new PartCompressor(config.getS3CompressionLevel(), gzip,
+            compressionDictionary);
+        this.compressedBuffer = newPartBuffer();
+      } else {
+        this.compressor = null;
+      }
+      // Only gzip members can be concatenated to a valid stream.
+      if (gzip && config.isS3CompressionParallel()
+          && config.isS3UploadThreadsEnabled()) {
+        int threads = Math.max(config.getS3UploadThreadCount(), 1);
+        this.parallelCompressor = new ParallelPartCompressor(config.getS3CompressionLevel(),
+            ContainerResources.get(config).getUploadExecutor(), threads * 2);
+      } else {
+        this.parallelCompressor = null;
+      }
+      this.fileBufferOs = newRecordBuffer();
     }
-    if (s3MultiPartFileHandler == null) {
-      startNewFile();
+
+    boolean hasMessages() {
+      return !transferredMessages.isEmpty();
     }
 
-    uploadPart(false);
+    /**
+     * Returns the buffers to the pool, the writer must not be used afterwards.
+     */
+    void release() {
+      fileBufferOs.release();
+      if (compressor != null) {
+        compressor.reset();
+        compressedBuffer.release();
+      }
+    }
 
-    if (finalizeFile) {
-      finalizeFile();
+    /**
+     * Bytes held in the buffers of the partition.
+     * @return Buffered bytes.
+     */
+    long bufferedSize() {
+      return (long) fileBufferOs.size() + (compressor == null ? 0 : compressedBuffer.size());
     }
-  }
 
-  private void startNewFile() {
-    String fileName = fileNumber == 0 ? baseFileName.replace("*","")
-        : baseFileName.replace("*","-" + Integer.toString(fileNumber));
+    /**
+     * Reads a single message into the write buffer adding seperators.
+     * @param message Message to write.
+     */
+    private void processMessage(SqsMessageHandler.MessageHolder message) {
+      int recordStart = fileBufferOs.size();
+      recordFramer.writeRecord(fileBufferOs, message.getMessage(), firstRecordInFile);
+      observedMessages++;
+      observedMessageBytes += fileBufferOs.size() - recordStart;
+      firstRecordInFile = false;
+      transferredMessages.add(message);
+      if (compressor != null && fileBufferOs.size() >= (parallelCompressor != null
+          ? PARALLEL_COMPRESSION_BLOCK_SIZE : COMPRESSION_BLOCK_SIZE)) {
+        compressRecords(false);
+      }
+    }
 
-    if (config.isDebug()) {
-      context.getLogger().log("Starting new file \"" + fileName + "\"." + lineSep );
+    /**
+     * Compresses the records written so far into the compressed part buffer.
+     * @param finishFile Ends the compressed stream of the file.
+     */
+    private void compressRecords(boolean finishFile) {
+      if (parallelCompressor != null) {
+        // The parallel compressor releases the records after their compression.
+        parallelCompressor.compress(fileBufferOs, compressedBuffer);
+        if (finishFile) {
+          parallelCompressor.finish(compressedBuffer);
+        }
+      } else {
+        compressor.compress(fileBufferOs, compressedBuffer, finishFile);
+        fileBufferOs.release();
+      }
+      fileBufferOs = newRecordBuffer();
     }
-    s3MultiPartFileHandler =
-        S3MultiPartFileHandler.startFileUpload(fileName, config, context.getLogger());
-  }
 
-  /**
-   * Uploads a S3 Multi Part upload file part.
-   * @param lastPart Set the file separator if it is the last part.
-   */
-  private void uploadPart(boolean lastPart) {
-    if (! config.getS3FileTerminator().isEmpty()) {
+    /**
+     * Size of the current part as it will be uploaded. With compression the records, which
+     * haven't been compressed or appended yet, are not included.
+     * @return Part size in bytes.
+     */
+    private int partSize() {
+      return compressor == null ? fileBufferOs.size() : compressedBuffer.size();
+    }
+
+    /**
+     * Checks if the message or file-size thresholds have been reached and writes file to S3.
+     */
+    private void checkAndFlushFileBuffer() {
+      // Write file
+      if (transferredMessages.size() >= config.getS3MaxMessagesPerFile()
+          || fileSize + partSize() > config.getS3MaxFileSizeKb() * 1024L) {
+        flushFileBufferToS3(true);
+      // Write part only
+      } else if (partSize() > PartSizeSchedule.getPartSizeLimit(config, filePartCount)) {
+        flushFileBufferToS3(false);
+      }
+    }
+
+    /**
+     * Transfers the current message buffer to S3.
+     * @param finalizeFile Finalises the file, adding the file terminator and closing the
+     *                     MultiPartUpload.
+     */
+    private void flushFileBufferToS3(boolean finalizeFile) {
+      if (transferredMessages.size() == 0) {
+        if (config.isDebug()) {
+          context.getLogger().log("No messages to transfer." + lineSep);
+        }
+        return;
+      }
+
+      if (config.isDebug()) {
+        context.getLogger().log("Writing file to S3 with size \"" + partSize()
+            + "\"b with \"" + transferredMessages.size() + "\" messages." + lineSep);
+      }
+      try {
+        if (s3MultiPartFileHandler == null) {
+          startNewFile();
+        }
+
+        uploadPart(finalizeFile);
+
+        if (finalizeFile) {
+          finalizeFile();
+        }
+      } catch (AmazonClientException e) {
+        if (sqsMessageHandler != null) {
+          throw e;
+        }
+        // Event source mode: Lambda delivers the messages of the failed file again.
+        context.getLogger().log("Error writing file, reporting \"" + transferredMessages.size()
+            + "\" messages as failed. " + e.getMessage() + lineSep);
+        transferredMessages.forEach(message ->
+            failedSqsMessageIds.add(message.getSqsMessageId()));
+        abortFile();
+        s3MultiPartFileHandler = null;
+        fileBufferOs.release();
+        fileBufferOs = newRecordBuffer();
+        if (compressor != null) {
+          compressor.reset();
+          if (parallelCompressor != null) {
+            parallelCompressor.reset();
+          }
+          compressedBuffer.release();
+          compressedBuffer = newPartBuffer();
+        }
+        fileSize = 0;
+        filePartCount = 0;
+        fileNumber++;
+        transferredMessages = new ArrayList<>();
+        firstRecordInFile = true;
+      }
+    }
+
+    private void abortFile() {
+      if (s3MultiPartFileHandler == null) {
+        return;
+      }
       try {
-        fileBufferOs.write(config.getS3FileTerminator().getBytes());
-      } catch (IOException expected) {
+        s3MultiPartFileHandler.abortFileUpload();
+      } catch (AmazonClientException e) {
+        context.getLogger().log("Error aborting the upload of the failed file. " + e.getMessage()
+            + lineSep);
       }
     }
-    s3MultiPartFileHandler.uploadPart(fileBufferOs.toByteArray());
-    fileSize += fileBufferOs.size();
-    fileBufferOs = new ByteArrayOutputStream();
+
+    private void startNewFile() {
+      String fileName = partitionPrefix + (fileNumber == 0 ? baseFileName.replace("*","")
+          : baseFileName.replace("*","-" + Integer.toString(fileNumber)));
+
+      if (config.isDebug()) {
+        context.getLogger().log("Starting new file \"" + fileName + "\"." + lineSep );
+      }
+      s3MultiPartFileHandler =
+          S3MultiPartFileHandler.startFileUpload(fileName, config, context);
+      s3MultiPartFileHandler.setTimeBudget(timeBudget);
+    }
+
+    /**
+     * Uploads a S3 Multi Part upload file part.
+     * @param lastPart Set the file terminator if it is the last part.
+     */
+    private void uploadPart(boolean lastPart) {
+      if (lastPart) {
+        recordFramer.writeFileTerminator(fileBufferOs);
+      }
+      PartBuffer part;
+      if (compressor != null) {
+        compressRecords(lastPart);
+        part = compressedBuffer;
+        compressedBuffer = newPartBuffer();
+      } else {
+        part = fileBufferOs;
+        fileBufferOs = newPartBuffer();
+      }
+      fileSize += part.size();
+      filePartCount++;
+      // The handler releases the buffer after the upload.
+      s3MultiPartFileHandler.uploadPart(part, lastPart);
+    }
+
+    private PartBuffer newRecordBuffer() {
+      return compressor == null ? newPartBuffer()
+          : new PartBuffer(PartBuffer.ChecksumType.NONE);
+    }
+
+    /**
+     * Closes the S3 multipart upload and deletes the messages. The partition starts its next
+     * file, while this one may still be completing.
+     */
+    private void finalizeFile() {
+      if (config.isDebug()) {
+        context.getLogger().log("Finalizing file upload." + lineSep);
+      }
+      final S3MultiPartFileHandler handler = s3MultiPartFileHandler;
+      final List<SqsMessageHandler.MessageHolder> messages = transferredMessages;
+      s3MultiPartFileHandler = null;
+      transferredMessages = new ArrayList<>();
+      fileSize = 0;
+      filePartCount = 0;
+      fileNumber++;
+      firstRecordInFile = true;
+      finalizeFileUpload(handler, messages);
+    }
   }
 
   /**
-   * Closes the S3 multipart upload and deletes the messages.
+   * File completing in the background with the messages to delete afterwards.
    */
-  private void finalizeFile() {
-    if (config.isDebug()) {
-      context.getLogger().log("Finalizing file upload." + lineSep);
-    }
-    if (! s3MultiPartFileHandler.finalizeMultipartUpload()) {
-      throw new AmazonS3Exception("Error during file uploading. Aborting processing.");
+  private static class PendingFile {
+    private final List<SqsMessageHandler.MessageHolder> messages;
+    private final Future<Boolean> finalized;
+
+    PendingFile(List<SqsMessageHandler.MessageHolder> messages, Future<Boolean> finalized) {
+      this.messages = messages;
+      this.finalized = finalized;
     }
-    s3MultiPartFileHandler = null;
-    sqsMessageHandler.deleteMessages(transferredMsgIds);
-    transferredMsgIds = new ArrayList<>();
-    firstRecordInFile = true;
   }
 }
@@ -0,0 +1,187 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.Config;
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.ConfigurationInitializer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * AWS Lambda entry point for an SQS event source mapping. The messages of the event are written
+ * to S3 and deleted by Lambda afterwards. Messages, which could not be written, are reported as
+ * batch item failures, this requires "ReportBatchItemFailures" on the event source mapping.
+ *
+ * @author Udo Held
+ */
+public class TransferSqsEventToS3Lambda implements RequestStreamHandler {
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  @Override
+  public void handleRequest(InputStream inputStream, OutputStream outputStream, Context context)
+      throws IOException {
+    Config config = ConfigurationInitializer.initializeConfig(context, false, false);
+    List<SqsMessageHandler.MessageHolder> messages = readEvent(inputStream);
+    if (config.isDebug()) {
+      context.getLogger().log("Received \"" + messages.size() + "\" messages."
+          + System.lineSeparator());
+    }
+    List<String> failedMessageIds =
+        TransferMessagesFromSqsToS3.transferMessagesToS3(config, context, messages);
+    writeBatchItemFailures(outputStream, failedMessageIds);
+  }
+
+  /**
+   * Reads the records of an SQS event without building a tree of the whole event.
+   * @param inputStream Lambda event.
+   * @return The messages of the event.
+   * @throws IOException if the event is not a valid SQS event.
+   */
+  static List<SqsMessageHandler.MessageHolder> readEvent(InputStream inputStream)
+      throws IOException {
+    List<SqsMessageHandler.MessageHolder> messages = new ArrayList<>();
+    try (JsonParser parser = JSON_FACTORY.createParser(inputStream)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new IOException("The SQS event must be a JSON object.");
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        if ("Records".equals(field) && value == JsonToken.START_ARRAY) {
+          while (parser.nextToken() == JsonToken.START_OBJECT) {
+            messages.add(readRecord(parser));
+          }
+        } else {
+          parser.skipChildren();
+        }
+      }
+    }
+    return messages;
+  }
+
+  private static SqsMessageHandler.MessageHolder readRecord(JsonParser parser)
+      throws IOException {
+    SqsMessageHandler.MessageHolder message = new SqsMessageHandler.MessageHolder();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      switch (field) {
+        case "messageId":
+          message.setSqsMessageId(parser.getText());
+          break;
+        case "receiptHandle":
+          message.setMessageId(parser.getText());
+          break;
+        case "body":
+          message.setMessage(parser.getText());
+          break;
+        case "attributes":
+          message.setAttributes(readAttributes(parser));
+          break;
+        case "messageAttributes":
+          message.setMessageAttributes(readMessageAttributes(parser));
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    return message;
+  }
+
+  private static Map<String, String> readAttributes(JsonParser parser) throws IOException {
+    Map<String, String> attributes = new HashMap<>();
+    if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+      parser.skipChildren();
+      return attributes;
+    }
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      if (parser.nextToken().isScalarValue()) {
+        attributes.put(name, parser.getText());
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return attributes;
+  }
+
+  /**
+   * Reads the string values of the message attributes, e.g.
+   * {"name": {"stringValue": "value", "dataType": "String"}}.
+   */
+  private static Map<String, String> readMessageAttributes(JsonParser parser)
+      throws IOException {
+    Map<String, String> attributes = new HashMap<>();
+    if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+      parser.skipChildren();
+      return attributes;
+    }
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        parser.skipChildren();
+        continue;
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        if ("stringValue".equals(field) && value == JsonToken.VALUE_STRING) {
+          attributes.put(name, parser.getText());
+        } else {
+          parser.skipChildren();
+        }
+      }
+    }
+    return attributes;
+  }
+
+  /**
+   * Writes the partial batch response.
+   * @param outputStream Lambda response.
+   * @param failedMessageIds SQS message ids, which have to be delivered again.
+   * @throws IOException on write errors.
+   */
+  static void writeBatchItemFailures(OutputStream outputStream, List<String> failedMessageIds)
+      throws IOException {
+    try (JsonGenerator generator = JSON_FACTORY.createGenerator(outputStream)) {
+      generator.writeStartObject();
+      generator.writeArrayFieldStart("batchItemFailures");
+      for (String messageId : failedMessageIds) {
+        generator.writeStartObject();
+        generator.writeStringField("itemIdentifier", messageId);
+        generator.writeEndObject();
+      }
+      generator.writeEndArray();
+      generator.writeEndObject();
+    }
+  }
+}
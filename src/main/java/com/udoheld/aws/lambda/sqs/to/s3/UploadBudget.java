@@ -0,0 +1,120 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.Config;
+
+/**
+ * Limits the bytes of the parts, which are queued or uploading on the upload threads. Each
+ * queued part holds its complete buffer, so without a limit a slow S3 endpoint lets the
+ * writer queue parts until the Lambda runs out of memory. The writer blocks until enough
+ * parts have been uploaded. A single part larger than the budget is accepted if nothing else
+ * is in flight.
+ *
+ * @author Udo Held
+ */
+final class UploadBudget {
+
+  private static final long MB = 1024L * 1024L;
+  /** Share of the Lambda memory used for parts in flight, if no budget is configured. */
+  private static final int MEMORY_SHARE_DIVISOR = 4;
+
+  private final long maxBytes;
+  private long inFlightBytes;
+  private int inFlightParts;
+  private long waitedMs;
+
+  UploadBudget(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Resolves the configured budget. It defaults to a quarter of the Lambda memory.
+   * @param config Lambda configuration.
+   * @param memoryLimitMb Memory of the Lambda or 0 if unknown.
+   * @return Budget in bytes.
+   */
+  static long resolveMaxBytes(Config config, int memoryLimitMb) {
+    if (config.getS3UploadMaxInflightMb() > 0) {
+      return config.getS3UploadMaxInflightMb() * MB;
+    }
+    long memory = memoryLimitMb > 0 ? memoryLimitMb * MB : Runtime.getRuntime().maxMemory();
+    return memory / MEMORY_SHARE_DIVISOR;
+  }
+
+  /**
+   * Reserves the bytes of a part, blocking while the budget is used up.
+   * @param bytes Size of the part.
+   * @return Milliseconds the caller has been blocked.
+   */
+  synchronized long acquire(long bytes) {
+    final long start = System.currentTimeMillis();
+    boolean interrupted = false;
+    while (inFlightParts > 0 && inFlightBytes + bytes > maxBytes) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        // The part still has to be uploaded, the interrupt is restored afterwards.
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    inFlightBytes += bytes;
+    inFlightParts++;
+    long blockedMs = System.currentTimeMillis() - start;
+    waitedMs += blockedMs;
+    return blockedMs;
+  }
+
+  /**
+   * Releases the bytes of an uploaded or failed part.
+   * @param bytes Size of the part.
+   */
+  synchronized void release(long bytes) {
+    inFlightBytes -= bytes;
+    inFlightParts--;
+    notifyAll();
+  }
+
+  long getMaxBytes() {
+    return maxBytes;
+  }
+
+  synchronized long getInFlightBytes() {
+    return inFlightBytes;
+  }
+
+  /**
+   * Number of parts queued or uploading, the queue depth of the upload threads.
+   * @return Parts in flight.
+   */
+  synchronized int getInFlightParts() {
+    return inFlightParts;
+  }
+
+  /**
+   * Total time writers have been blocked by the budget.
+   * @return Milliseconds.
+   */
+  synchronized long getWaitedMs() {
+    return waitedMs;
+  }
+}
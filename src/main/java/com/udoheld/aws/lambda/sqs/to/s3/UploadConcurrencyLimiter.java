@@ -0,0 +1,160 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+/**
+ * Adapts the number of concurrent part uploads like TCP congestion control. The limit grows by
+ * one after a full window of part uploads without throttling and with flat latency. It is
+ * halved on a 503 SlowDown or if the latency per MB jumps above twice its average. Parts,
+ * which have been started before a decrease, don't halve the limit again.
+ *
+ * <p>The upload executor has threads for the maximum limit, threads above the current limit
+ * wait for a permit.</p>
+ *
+ * @author Udo Held
+ */
+final class UploadConcurrencyLimiter {
+
+  /** Decision taken for a finished upload. */
+  enum Decision { NONE, INCREASED, DECREASED }
+
+  private static final double LATENCY_SPIKE_FACTOR = 2.0;
+  private static final double LATENCY_WEIGHT = 0.1;
+  /** Parts smaller than this are dominated by the request overhead and not sampled. */
+  private static final long MIN_SAMPLE_BYTES = 1024L * 1024L;
+  private static final int WARM_UP_SAMPLES = 4;
+
+  private final int maxLimit;
+  private int limit;
+  private int inFlight;
+  private int successesInWindow;
+  private boolean decreased;
+  private long lastDecreaseNanos;
+  private double averageMsPerMb = -1;
+  private int samples;
+  private int increases;
+  private int decreases;
+  private int throttles;
+
+  UploadConcurrencyLimiter(int initialLimit, int maxLimit) {
+    this.maxLimit = Math.max(maxLimit, 1);
+    this.limit = Math.max(1, Math.min(initialLimit, this.maxLimit));
+  }
+
+  /**
+   * Waits until a request may be sent.
+   * @return Start time of the request for {@link #onSuccess} or {@link #onThrottled}.
+   */
+  synchronized long acquire() {
+    boolean interrupted = false;
+    while (inFlight >= limit) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    inFlight++;
+    return System.nanoTime();
+  }
+
+  synchronized void release() {
+    inFlight--;
+    notifyAll();
+  }
+
+  /**
+   * Records a successful upload.
+   * @param startNanos Start of the request returned by {@link #acquire()}.
+   * @param bytes Uploaded bytes.
+   * @return Decision taken.
+   */
+  synchronized Decision onSuccess(long startNanos, long bytes) {
+    long latencyNanos = System.nanoTime() - startNanos;
+    if (bytes >= MIN_SAMPLE_BYTES) {
+      double msPerMb = latencyNanos / 1e6 / (bytes / (double) MIN_SAMPLE_BYTES);
+      boolean spike = samples >= WARM_UP_SAMPLES
+          && msPerMb > averageMsPerMb * LATENCY_SPIKE_FACTOR;
+      averageMsPerMb = averageMsPerMb < 0 ? msPerMb
+          : averageMsPerMb + LATENCY_WEIGHT * (msPerMb - averageMsPerMb);
+      samples++;
+      if (spike) {
+        return decrease(startNanos);
+      }
+    }
+    if (++successesInWindow >= limit && limit < maxLimit) {
+      limit++;
+      increases++;
+      successesInWindow = 0;
+      notifyAll();
+      return Decision.INCREASED;
+    }
+    return Decision.NONE;
+  }
+
+  /**
+   * Records a throttled request.
+   * @param startNanos Start of the request returned by {@link #acquire()}.
+   * @return Decision taken.
+   */
+  synchronized Decision onThrottled(long startNanos) {
+    throttles++;
+    return decrease(startNanos);
+  }
+
+  private Decision decrease(long startNanos) {
+    successesInWindow = 0;
+    // Requests sent before the last decrease have already been accounted for.
+    if ((decreased && startNanos - lastDecreaseNanos < 0) || limit == 1) {
+      return Decision.NONE;
+    }
+    limit = Math.max(1, limit / 2);
+    decreases++;
+    decreased = true;
+    lastDecreaseNanos = System.nanoTime();
+    return Decision.DECREASED;
+  }
+
+  synchronized int getLimit() {
+    return limit;
+  }
+
+  int getMaxLimit() {
+    return maxLimit;
+  }
+
+  synchronized double getAverageMsPerMb() {
+    return averageMsPerMb;
+  }
+
+  synchronized int getIncreases() {
+    return increases;
+  }
+
+  synchronized int getDecreases() {
+    return decreases;
+  }
+
+  synchronized int getThrottles() {
+    return throttles;
+  }
+}
@@ -0,0 +1,134 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3.cfg;
+
+/**
+ * Derives the defaults of part size, file size, upload and deletion threads from the memory
+ * and vCPUs of the Lambda and the message sizes observed by earlier invocations of the
+ * container. Values set in the environment are not changed.
+ *
+ * <p>A quarter of the memory is used for parts in flight, the same share as the default upload
+ * budget. Each upload thread gets two parts of it, one uploading and one queued. Files hold
+ * about as many bytes as the maximum number of messages per file needs.</p>
+ *
+ * @author Udo Held
+ */
+public final class AutoTuner {
+
+  private static final int MIN_PART_SIZE_KB = 5120;
+  private static final int MAX_PART_SIZE_KB = 65536;
+  private static final int MAX_PARTS_PER_FILE = 16;
+  private static final int PARTS_PER_UPLOAD_THREAD = 2;
+  private static final int MEMORY_SHARE_DIVISOR = 4;
+  private static final int MAX_UPLOAD_THREADS = 16;
+  private static final int MIN_DELETION_THREADS = 2;
+  private static final int MAX_DELETION_THREADS = 16;
+  /** Weight of the latest invocation in the average message size. */
+  private static final double MESSAGE_SIZE_WEIGHT = 0.3;
+
+  private static double averageMessageBytes = -1;
+
+  private final int memoryLimitMb;
+  private final int processors;
+
+  /**
+   * Creates a tuner for the resources of the Lambda.
+   * @param memoryLimitMb Memory of the Lambda in MB.
+   * @param processors Number of available vCPUs.
+   */
+  public AutoTuner(int memoryLimitMb, int processors) {
+    this.memoryLimitMb = memoryLimitMb;
+    this.processors = Math.max(processors, 1);
+  }
+
+  /**
+   * Uploads are network bound, so two threads are used per vCPU as long as each thread can
+   * hold two parts of the minimum size.
+   * @return Number of upload threads.
+   */
+  public int getUploadThreads() {
+    int memoryThreads = getPartBudgetKb() / (MIN_PART_SIZE_KB * PARTS_PER_UPLOAD_THREAD);
+    return clamp(Math.min(processors * 2, memoryThreads), 1, MAX_UPLOAD_THREADS);
+  }
+
+  /**
+   * Splits the memory for parts in flight among the upload threads, rounded down to full MB.
+   * @param uploadThreads Configured upload threads.
+   * @return Part size in KB.
+   */
+  public int getUploadPartSizeKb(int uploadThreads) {
+    int partSizeKb = getPartBudgetKb() / (Math.max(uploadThreads, 1) * PARTS_PER_UPLOAD_THREAD);
+    return clamp(partSizeKb / 1024 * 1024, MIN_PART_SIZE_KB, MAX_PART_SIZE_KB);
+  }
+
+  /**
+   * Sizes files for the maximum number of messages at the observed average message size.
+   * Without observations files consist of two parts.
+   * @param partSizeKb Configured part size.
+   * @param maxMessagesPerFile Configured maximum of messages per file.
+   * @return File size in KB.
+   */
+  public int getFileSizeKb(int partSizeKb, int maxMessagesPerFile) {
+    double messageBytes = getAverageMessageBytes();
+    if (messageBytes <= 0) {
+      return partSizeKb * 2;
+    }
+    long observedKb = (long) (messageBytes * maxMessagesPerFile / 1024);
+    return (int) Math.max(partSizeKb,
+        Math.min(observedKb, (long) partSizeKb * MAX_PARTS_PER_FILE));
+  }
+
+  /**
+   * Deletions are small network bound requests, four threads are used per vCPU.
+   * @return Number of deletion threads.
+   */
+  public int getDeletionThreads() {
+    return clamp(processors * 4, MIN_DELETION_THREADS, MAX_DELETION_THREADS);
+  }
+
+  /**
+   * Records the messages of an invocation. The average is kept as long as the container lives.
+   * @param messages Number of messages.
+   * @param bytes Total size of the messages.
+   */
+  public static synchronized void recordMessages(int messages, long bytes) {
+    if (messages <= 0) {
+      return;
+    }
+    double messageBytes = (double) bytes / messages;
+    averageMessageBytes = averageMessageBytes < 0 ? messageBytes
+        : averageMessageBytes + MESSAGE_SIZE_WEIGHT * (messageBytes - averageMessageBytes);
+  }
+
+  static synchronized double getAverageMessageBytes() {
+    return averageMessageBytes;
+  }
+
+  static synchronized void resetObservations() {
+    averageMessageBytes = -1;
+  }
+
+  private int getPartBudgetKb() {
+    return memoryLimitMb * 1024 / MEMORY_SHARE_DIVISOR;
+  }
+
+  private static int clamp(int value, int min, int max) {
+    return Math.max(min, Math.min(value, max));
+  }
+}
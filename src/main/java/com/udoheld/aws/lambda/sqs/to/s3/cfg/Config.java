@@ -26,9 +26,20 @@ public class Config {
   private boolean debug;
   private int lambdaMaxRemainingTimeMs;
   private int lambdaMaxRemainingPercentage;
+  private boolean lambdaAutoTune;
+  private boolean lambdaPredictiveTimeBudget;
   private int s3MaxMessagesPerFile;
   private String sqsSourceQueue;
   private int sqsDeletionThreads;
+  private int sqsDeletionMaxRetries;
+  private int sqsReceiveThreads;
+  private int sqsReceiveQueueBatches;
+  private boolean sqsReceivePrefetchEnabled;
+  private int sqsReceiveWaitTimeSeconds;
+  private int sqsReceiveMaxEmptyReceives;
+  private boolean sqsReceiveCheckApproximateCount;
+  private int sqsVisibilityTimeoutSeconds;
+  private int sqsVisibilityHeartbeatMarginSeconds;
   private String s3BucketName;
   private String s3BucketFolder;
   private String s3FileInitiator;
@@ -39,8 +50,25 @@ public class Config {
   private String s3RecordTerminator;
   private int s3MaxFileSizeKb;
   private int s3UploadPartSizeKb;
+  private int s3UploadPartMaxSizeKb;
+  private int s3FinalizeMaxPendingFiles;
   private boolean s3UploadThreadsEnabled;
   private int s3UploadThreadCount;
+  private int s3UploadMaxRetries;
+  private int s3UploadMaxInflightMb;
+  private boolean s3UploadThreadsAdaptive;
+  private int s3UploadThreadsMax;
+  private String s3PartChecksum;
+  private String s3Compression;
+  private int s3CompressionLevel;
+  private boolean s3CompressionParallel;
+  private String s3CompressionDictionary;
+  private String s3PartitionKeySource;
+  private String s3PartitionKey;
+  private String s3PartitionName;
+  private int s3PartitionMaxOpen;
+  private int s3PartitionMaxBufferKb;
+  private String s3EventTimeWindow;
 
   public boolean isDebug() {
     return debug;
@@ -90,6 +118,78 @@ public class Config {
     this.sqsDeletionThreads = sqsDeletionThreads;
   }
 
+  public int getSqsDeletionMaxRetries() {
+    return sqsDeletionMaxRetries;
+  }
+
+  public void setSqsDeletionMaxRetries(int sqsDeletionMaxRetries) {
+    this.sqsDeletionMaxRetries = sqsDeletionMaxRetries;
+  }
+
+  public int getSqsReceiveThreads() {
+    return sqsReceiveThreads;
+  }
+
+  public void setSqsReceiveThreads(int sqsReceiveThreads) {
+    this.sqsReceiveThreads = sqsReceiveThreads;
+  }
+
+  public int getSqsReceiveQueueBatches() {
+    return sqsReceiveQueueBatches;
+  }
+
+  public void setSqsReceiveQueueBatches(int sqsReceiveQueueBatches) {
+    this.sqsReceiveQueueBatches = sqsReceiveQueueBatches;
+  }
+
+  public boolean isSqsReceivePrefetchEnabled() {
+    return sqsReceivePrefetchEnabled;
+  }
+
+  public void setSqsReceivePrefetchEnabled(boolean sqsReceivePrefetchEnabled) {
+    this.sqsReceivePrefetchEnabled = sqsReceivePrefetchEnabled;
+  }
+
+  public int getSqsReceiveWaitTimeSeconds() {
+    return sqsReceiveWaitTimeSeconds;
+  }
+
+  public void setSqsReceiveWaitTimeSeconds(int sqsReceiveWaitTimeSeconds) {
+    this.sqsReceiveWaitTimeSeconds = sqsReceiveWaitTimeSeconds;
+  }
+
+  public int getSqsReceiveMaxEmptyReceives() {
+    return sqsReceiveMaxEmptyReceives;
+  }
+
+  public void setSqsReceiveMaxEmptyReceives(int sqsReceiveMaxEmptyReceives) {
+    this.sqsReceiveMaxEmptyReceives = sqsReceiveMaxEmptyReceives;
+  }
+
+  public boolean isSqsReceiveCheckApproximateCount() {
+    return sqsReceiveCheckApproximateCount;
+  }
+
+  public void setSqsReceiveCheckApproximateCount(boolean sqsReceiveCheckApproximateCount) {
+    this.sqsReceiveCheckApproximateCount = sqsReceiveCheckApproximateCount;
+  }
+
+  public int getSqsVisibilityTimeoutSeconds() {
+    return sqsVisibilityTimeoutSeconds;
+  }
+
+  public void setSqsVisibilityTimeoutSeconds(int sqsVisibilityTimeoutSeconds) {
+    this.sqsVisibilityTimeoutSeconds = sqsVisibilityTimeoutSeconds;
+  }
+
+  public int getSqsVisibilityHeartbeatMarginSeconds() {
+    return sqsVisibilityHeartbeatMarginSeconds;
+  }
+
+  public void setSqsVisibilityHeartbeatMarginSeconds(int sqsVisibilityHeartbeatMarginSeconds) {
+    this.sqsVisibilityHeartbeatMarginSeconds = sqsVisibilityHeartbeatMarginSeconds;
+  }
+
   public String getS3BucketName() {
     return s3BucketName;
   }
@@ -185,4 +285,156 @@ public class Config {
   public void setS3UploadThreadCount(int s3UploadThreadCount) {
     this.s3UploadThreadCount = s3UploadThreadCount;
   }
+
+  public String getS3PartChecksum() {
+    return s3PartChecksum;
+  }
+
+  public void setS3PartChecksum(String s3PartChecksum) {
+    this.s3PartChecksum = s3PartChecksum;
+  }
+
+  public String getS3Compression() {
+    return s3Compression;
+  }
+
+  public void setS3Compression(String s3Compression) {
+    this.s3Compression = s3Compression;
+  }
+
+  public int getS3CompressionLevel() {
+    return s3CompressionLevel;
+  }
+
+  public void setS3CompressionLevel(int s3CompressionLevel) {
+    this.s3CompressionLevel = s3CompressionLevel;
+  }
+
+  public boolean isS3CompressionParallel() {
+    return s3CompressionParallel;
+  }
+
+  public void setS3CompressionParallel(boolean s3CompressionParallel) {
+    this.s3CompressionParallel = s3CompressionParallel;
+  }
+
+  public String getS3CompressionDictionary() {
+    return s3CompressionDictionary;
+  }
+
+  public void setS3CompressionDictionary(String s3CompressionDictionary) {
+    this.s3CompressionDictionary = s3CompressionDictionary;
+  }
+
+  public String getS3PartitionKeySource() {
+    return s3PartitionKeySource;
+  }
+
+  public void setS3PartitionKeySource(String s3PartitionKeySource) {
+    this.s3PartitionKeySource = s3PartitionKeySource;
+  }
+
+  public String getS3PartitionKey() {
+    return s3PartitionKey;
+  }
+
+  public void setS3PartitionKey(String s3PartitionKey) {
+    this.s3PartitionKey = s3PartitionKey;
+  }
+
+  public String getS3PartitionName() {
+    return s3PartitionName;
+  }
+
+  public void setS3PartitionName(String s3PartitionName) {
+    this.s3PartitionName = s3PartitionName;
+  }
+
+  public int getS3PartitionMaxOpen() {
+    return s3PartitionMaxOpen;
+  }
+
+  public void setS3PartitionMaxOpen(int s3PartitionMaxOpen) {
+    this.s3PartitionMaxOpen = s3PartitionMaxOpen;
+  }
+
+  public int getS3PartitionMaxBufferKb() {
+    return s3PartitionMaxBufferKb;
+  }
+
+  public void setS3PartitionMaxBufferKb(int s3PartitionMaxBufferKb) {
+    this.s3PartitionMaxBufferKb = s3PartitionMaxBufferKb;
+  }
+
+  public String getS3EventTimeWindow() {
+    return s3EventTimeWindow;
+  }
+
+  public void setS3EventTimeWindow(String s3EventTimeWindow) {
+    this.s3EventTimeWindow = s3EventTimeWindow;
+  }
+
+  public int getS3UploadMaxRetries() {
+    return s3UploadMaxRetries;
+  }
+
+  public void setS3UploadMaxRetries(int s3UploadMaxRetries) {
+    this.s3UploadMaxRetries = s3UploadMaxRetries;
+  }
+
+  public int getS3UploadMaxInflightMb() {
+    return s3UploadMaxInflightMb;
+  }
+
+  public void setS3UploadMaxInflightMb(int s3UploadMaxInflightMb) {
+    this.s3UploadMaxInflightMb = s3UploadMaxInflightMb;
+  }
+
+  public boolean isLambdaAutoTune() {
+    return lambdaAutoTune;
+  }
+
+  public void setLambdaAutoTune(boolean lambdaAutoTune) {
+    this.lambdaAutoTune = lambdaAutoTune;
+  }
+
+  public int getS3UploadPartMaxSizeKb() {
+    return s3UploadPartMaxSizeKb;
+  }
+
+  public void setS3UploadPartMaxSizeKb(int s3UploadPartMaxSizeKb) {
+    this.s3UploadPartMaxSizeKb = s3UploadPartMaxSizeKb;
+  }
+
+  public boolean isS3UploadThreadsAdaptive() {
+    return s3UploadThreadsAdaptive;
+  }
+
+  public void setS3UploadThreadsAdaptive(boolean s3UploadThreadsAdaptive) {
+    this.s3UploadThreadsAdaptive = s3UploadThreadsAdaptive;
+  }
+
+  public int getS3UploadThreadsMax() {
+    return s3UploadThreadsMax;
+  }
+
+  public void setS3UploadThreadsMax(int s3UploadThreadsMax) {
+    this.s3UploadThreadsMax = s3UploadThreadsMax;
+  }
+
+  public boolean isLambdaPredictiveTimeBudget() {
+    return lambdaPredictiveTimeBudget;
+  }
+
+  public void setLambdaPredictiveTimeBudget(boolean lambdaPredictiveTimeBudget) {
+    this.lambdaPredictiveTimeBudget = lambdaPredictiveTimeBudget;
+  }
+
+  public int getS3FinalizeMaxPendingFiles() {
+    return s3FinalizeMaxPendingFiles;
+  }
+
+  public void setS3FinalizeMaxPendingFiles(int s3FinalizeMaxPendingFiles) {
+    this.s3FinalizeMaxPendingFiles = s3FinalizeMaxPendingFiles;
+  }
 }
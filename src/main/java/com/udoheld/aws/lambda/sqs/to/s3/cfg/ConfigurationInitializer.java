@@ -20,6 +20,10 @@ package com.udoheld.aws.lambda.sqs.to.s3.cfg;
 
 import com.amazonaws.services.lambda.runtime.Context;
 
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.zip.Deflater;
+
 /**
  * This class helps initializing the configuration.
  * @author Udo Held
@@ -30,8 +34,22 @@ public class ConfigurationInitializer {
   public static final String CFG_MAX_REMAINING_TIME_MS = "Lambda_Max_Remaining_Time_MS";
   public static final String CFG_MAX_REMAINING_PCT
       = "Lambda_Max_Remaining_Time_Percentage";
+  public static final String CFG_AUTO_TUNE = "Lambda_Auto_Tune";
+  public static final String CFG_PREDICTIVE_TIME_BUDGET = "Lambda_Predictive_Time_Budget";
   public static final String CFG_SQS_QUEUE = "SQS_Source_Queue";
   public static final String CFG_SQS_DELETION_THREADS = "SQS_Deletion_Threads";
+  public static final String CFG_SQS_DELETION_MAX_RETRIES = "SQS_Deletion_Max_Retries";
+  public static final String CFG_SQS_RECEIVE_THREADS = "SQS_Receive_Threads";
+  public static final String CFG_SQS_RECEIVE_QUEUE_BATCHES = "SQS_Receive_Queue_Batches";
+  public static final String CFG_SQS_RECEIVE_PREFETCH_ENABLED = "SQS_Receive_Prefetch_Enabled";
+  public static final String CFG_SQS_RECEIVE_WAIT_TIME_SECONDS = "SQS_Receive_Wait_Time_Seconds";
+  public static final String CFG_SQS_RECEIVE_MAX_EMPTY_RECEIVES = "SQS_Receive_Max_Empty_Receives";
+  public static final String CFG_SQS_RECEIVE_CHECK_APPROXIMATE_COUNT
+      = "SQS_Receive_Check_Approximate_Count";
+  public static final String CFG_SQS_VISIBILITY_TIMEOUT_SECONDS
+      = "SQS_Visibility_Timeout_Seconds";
+  public static final String CFG_SQS_VISIBILITY_HEARTBEAT_MARGIN_SECONDS
+      = "SQS_Visibility_Heartbeat_Margin_Seconds";
   public static final String CFG_S3_BUCKET_NAME = "S3_Bucket_Name";
   public static final String CFG_S3_BUCKET_FOLDER = "S3_Bucket_Folder";
   public static final String CFG_S3_FILE_INITIATOR = "S3_File_Initiator";
@@ -39,21 +57,64 @@ public class ConfigurationInitializer {
   public static final String CFG_S3_FILE_SIZE_KB = "S3_File_Size_KB";
   public static final String CFG_S3_FILE_TERMINATOR = "S3_File_Terminator";
   public static final String CFG_S3_UPLOAD_PART_SIZE_KB = "S3_Upload_Part_Size_KB";
+  public static final String CFG_S3_UPLOAD_PART_MAX_SIZE_KB = "S3_Upload_Part_Max_Size_KB";
+  public static final String CFG_S3_FINALIZE_MAX_PENDING_FILES = "S3_Finalize_Max_Pending_Files";
   public static final String CFG_S3_MAX_MESSAGES_PER_FILE = "S3_Max_Messages_Per_File";
   public static final String CFG_S3_RECORD_INITIATOR = "S3_Record_Initiator";
   public static final String CFG_S3_RECORD_SEPARATOR = "S3_Record_Separator";
   public static final String CFG_S3_RECORD_TERMINATOR = "S3_Record_Terminator";
   public static final String CFG_S3_UPLOAD_THREADS_ENABLED = "S3_Upload_Threads_Enabled";
   public static final String CFG_S3_UPLOAD_THREADS_COUNT = "S3_Upload_Threads_Count";
+  public static final String CFG_S3_UPLOAD_THREADS_ADAPTIVE = "S3_Upload_Threads_Adaptive";
+  public static final String CFG_S3_UPLOAD_THREADS_MAX = "S3_Upload_Threads_Max";
+  public static final String CFG_S3_PART_CHECKSUM = "S3_Part_Checksum";
+  public static final String CFG_S3_UPLOAD_MAX_RETRIES = "S3_Upload_Max_Retries";
+  public static final String CFG_S3_UPLOAD_MAX_INFLIGHT_MB = "S3_Upload_Max_Inflight_MB";
+  public static final String CFG_S3_COMPRESSION = "S3_Compression";
+  public static final String CFG_S3_COMPRESSION_LEVEL = "S3_Compression_Level";
+  public static final String CFG_S3_COMPRESSION_PARALLEL = "S3_Compression_Parallel";
+  public static final String CFG_S3_COMPRESSION_DICTIONARY = "S3_Compression_Dictionary";
+  public static final String CFG_S3_PARTITION_KEY_SOURCE = "S3_Partition_Key_Source";
+  public static final String CFG_S3_PARTITION_KEY = "S3_Partition_Key";
+  public static final String CFG_S3_PARTITION_NAME = "S3_Partition_Name";
+  public static final String CFG_S3_PARTITION_MAX_OPEN = "S3_Partition_Max_Open";
+  public static final String CFG_S3_PARTITION_MAX_BUFFER_KB = "S3_Partition_Max_Buffer_KB";
+  public static final String CFG_S3_EVENT_TIME_WINDOW = "S3_Event_Time_Window";
+
+  public static final String S3_PART_CHECKSUM_MD5 = "MD5";
+  public static final String S3_PART_CHECKSUM_CRC32C = "CRC32C";
+
+  public static final String S3_COMPRESSION_NONE = "NONE";
+  public static final String S3_COMPRESSION_GZIP = "GZIP";
+  public static final String S3_COMPRESSION_ZLIB = "ZLIB";
+
+  public static final String S3_PARTITION_KEY_SOURCE_NONE = "NONE";
+  public static final String S3_PARTITION_KEY_SOURCE_JSON = "JSON";
+  public static final String S3_PARTITION_KEY_SOURCE_ATTRIBUTE = "ATTRIBUTE";
+  public static final String S3_PARTITION_KEY_SOURCE_REGEX = "REGEX";
+
+  public static final String S3_EVENT_TIME_WINDOW_NONE = "NONE";
+  public static final String S3_EVENT_TIME_WINDOW_DAY = "DAY";
+  public static final String S3_EVENT_TIME_WINDOW_HOUR = "HOUR";
+  public static final String S3_EVENT_TIME_WINDOW_MINUTE = "MINUTE";
 
   private static final String S3_FILE_PATTERN_WILDCARD = "*";
 
-  private static final int S3_MINIMUM_UPLOAD_PART_SIZE = 5120;
+  private static final int S3_MINIMUM_UPLOAD_PART_SIZE_KB = 5120;
+
+  /** S3 accepts 5 GB parts, a part is buffered in memory and limited to 2 GB minus headroom. */
+  private static final int S3_MAXIMUM_UPLOAD_PART_SIZE_KB = 2 * 1024 * 1024 - 64 * 1024;
+
+  private static final int S3_UPLOAD_PART_GROWTH = 4;
+
+  private static final int SQS_MAXIMUM_WAIT_TIME_SECONDS = 20;
 
   private final Config config;
   private final Context context;
   private StringBuilder debugLogBuilder = new StringBuilder();
   private boolean debug = false;
+  private boolean sqsQueueRequired = true;
+  private AutoTuner autoTuner;
   private final String linSep = System.lineSeparator();
 
   private ConfigurationInitializer(Context context, boolean forceDebug) {
@@ -63,7 +124,21 @@ public class ConfigurationInitializer {
   }
 
   public static Config initializeConfig(Context context, boolean forceDebug) {
+    return initializeConfig(context, forceDebug, true);
+  }
+
+  /**
+   * Reads and validates the configuration.
+   * @param context AWS Lambda context.
+   * @param forceDebug Enables debug logging independent of the configuration.
+   * @param sqsQueueRequired false if the messages are delivered by an SQS event source instead
+   *                         of being read from the configured queue.
+   * @return The configuration.
+   */
+  public static Config initializeConfig(Context context, boolean forceDebug,
+                                        boolean sqsQueueRequired) {
     ConfigurationInitializer cfgInit = new ConfigurationInitializer(context, forceDebug);
+    cfgInit.sqsQueueRequired = sqsQueueRequired;
     return cfgInit.readConfig();
   }
 
@@ -79,6 +154,8 @@ public class ConfigurationInitializer {
 
     initTimeRemaining(startingTimeRemaining);
 
+    initAutoTune();
+
     initSqs();
 
     initS3();
@@ -94,6 +171,7 @@ public class ConfigurationInitializer {
   }
 
   private void initTimeRemaining(int startingTimeRemaining) {
+    config.setLambdaPredictiveTimeBudget(readValue(CFG_PREDICTIVE_TIME_BUDGET, false));
     config.setLambdaMaxRemainingTimeMs(readValue(CFG_MAX_REMAINING_TIME_MS,0));
     if (config.getLambdaMaxRemainingTimeMs() == 0) {
       config.setLambdaMaxRemainingPercentage(readValue(CFG_MAX_REMAINING_PCT,70));
@@ -107,9 +185,64 @@ public class ConfigurationInitializer {
     }
   }
 
+  /**
+   * With auto tuning the defaults of part size, file size and thread counts are derived from
+   * the Lambda's memory, its vCPUs and the message sizes seen so far by the container.
+   */
+  private void initAutoTune() {
+    config.setLambdaAutoTune(readValue(CFG_AUTO_TUNE, false));
+    if (!config.isLambdaAutoTune()) {
+      return;
+    }
+    if (context.getMemoryLimitInMB() <= 0) {
+      if (debug) {
+        debugLogBuilder.append("Unknown memory limit, \"" + CFG_AUTO_TUNE
+            + "\" uses the static defaults." + linSep);
+      }
+      return;
+    }
+    autoTuner = new AutoTuner(context.getMemoryLimitInMB(),
+        Runtime.getRuntime().availableProcessors());
+    if (debug) {
+      debugLogBuilder.append("Auto tuning for \"" + context.getMemoryLimitInMB() + "\" MB and \""
+          + Runtime.getRuntime().availableProcessors() + "\" vCPUs." + linSep);
+    }
+  }
+
   private void initSqs() {
     config.setSqsSourceQueue(readValue(CFG_SQS_QUEUE,""));
-    config.setSqsDeletionThreads(readValue(CFG_SQS_DELETION_THREADS,5));
+    config.setSqsDeletionThreads(readValue(CFG_SQS_DELETION_THREADS,
+        autoTuner != null ? autoTuner.getDeletionThreads() : 5));
+    config.setSqsDeletionMaxRetries(readValue(CFG_SQS_DELETION_MAX_RETRIES,5));
+    config.setSqsReceiveThreads(readValue(CFG_SQS_RECEIVE_THREADS,1));
+    config.setSqsReceiveQueueBatches(readValue(CFG_SQS_RECEIVE_QUEUE_BATCHES,20));
+    config.setSqsReceivePrefetchEnabled(readValue(CFG_SQS_RECEIVE_PREFETCH_ENABLED,false));
+    config.setSqsReceiveWaitTimeSeconds(readValue(CFG_SQS_RECEIVE_WAIT_TIME_SECONDS,1));
+    if (config.getSqsReceiveWaitTimeSeconds() > SQS_MAXIMUM_WAIT_TIME_SECONDS) {
+      if (debug) {
+        debugLogBuilder.append("\"" + CFG_SQS_RECEIVE_WAIT_TIME_SECONDS
+            + "\" is larger than the maximum value \"" + SQS_MAXIMUM_WAIT_TIME_SECONDS
+            + "\". Overwriting \"" + CFG_SQS_RECEIVE_WAIT_TIME_SECONDS
+            + "\" with the maximum value." + linSep);
+      }
+      config.setSqsReceiveWaitTimeSeconds(SQS_MAXIMUM_WAIT_TIME_SECONDS);
+    }
+    config.setSqsReceiveMaxEmptyReceives(readValue(CFG_SQS_RECEIVE_MAX_EMPTY_RECEIVES,1));
+    config.setSqsReceiveCheckApproximateCount(
+        readValue(CFG_SQS_RECEIVE_CHECK_APPROXIMATE_COUNT,false));
+    config.setSqsVisibilityTimeoutSeconds(readValue(CFG_SQS_VISIBILITY_TIMEOUT_SECONDS,0));
+    config.setSqsVisibilityHeartbeatMarginSeconds(
+        readValue(CFG_SQS_VISIBILITY_HEARTBEAT_MARGIN_SECONDS,10));
+    if (config.getSqsVisibilityTimeoutSeconds() > 0 && config.getSqsVisibilityTimeoutSeconds()
+        <= config.getSqsVisibilityHeartbeatMarginSeconds()) {
+      if (debug) {
+        debugLogBuilder.append("\"" + CFG_SQS_VISIBILITY_HEARTBEAT_MARGIN_SECONDS
+            + "\" must be smaller than \"" + CFG_SQS_VISIBILITY_TIMEOUT_SECONDS
+            + "\". Using half of the visibility timeout." + linSep);
+      }
+      config.setSqsVisibilityHeartbeatMarginSeconds(
+          config.getSqsVisibilityTimeoutSeconds() / 2);
+    }
   }
 
   private void initS3() {
@@ -117,31 +250,95 @@ public class ConfigurationInitializer {
     config.setS3BucketFolder(readValue(CFG_S3_BUCKET_FOLDER,""));
     config.setS3FilePattern(readValue(CFG_S3_FILE_PATTERN,
         "\"yyyy-MM-dd'T'HH:mm:ss\"*.json"));
-    config.setS3MaxFileSizeKb(readValue(CFG_S3_FILE_SIZE_KB,10240));
-    config.setS3UploadPartSizeKb(readValue(CFG_S3_UPLOAD_PART_SIZE_KB,
-        S3_MINIMUM_UPLOAD_PART_SIZE));
-    if (config.getS3UploadPartSizeKb() < S3_MINIMUM_UPLOAD_PART_SIZE) {
+    config.setS3UploadThreadsEnabled(readValue(CFG_S3_UPLOAD_THREADS_ENABLED,true));
+    config.setS3UploadThreadCount(readValue(CFG_S3_UPLOAD_THREADS_COUNT,
+        autoTuner != null ? autoTuner.getUploadThreads() : 2));
+    config.setS3MaxMessagesPerFile(readValue(CFG_S3_MAX_MESSAGES_PER_FILE,10000));
+    config.setS3UploadPartSizeKb(readValue(CFG_S3_UPLOAD_PART_SIZE_KB, autoTuner != null
+        ? autoTuner.getUploadPartSizeKb(config.getS3UploadThreadCount())
+        : S3_MINIMUM_UPLOAD_PART_SIZE_KB));
+    if (config.getS3UploadPartSizeKb() < S3_MINIMUM_UPLOAD_PART_SIZE_KB) {
 
       if (debug) {
         debugLogBuilder.append( "\"" + CFG_S3_UPLOAD_PART_SIZE_KB
-            + "\" size is smaller than the minimum value \"" + S3_MINIMUM_UPLOAD_PART_SIZE
+            + "\" size is smaller than the minimum value \"" + S3_MINIMUM_UPLOAD_PART_SIZE_KB
             + "\". Overwriting \"" + CFG_S3_UPLOAD_PART_SIZE_KB + "\" with the minimum value."
             + linSep);
       }
-      config.setS3UploadPartSizeKb(S3_MINIMUM_UPLOAD_PART_SIZE);
+      config.setS3UploadPartSizeKb(S3_MINIMUM_UPLOAD_PART_SIZE_KB);
+    } else if (config.getS3UploadPartSizeKb() > S3_MAXIMUM_UPLOAD_PART_SIZE_KB) {
+      if (debug) {
+        debugLogBuilder.append("\"" + CFG_S3_UPLOAD_PART_SIZE_KB
+            + "\" is larger than the maximum value \"" + S3_MAXIMUM_UPLOAD_PART_SIZE_KB
+            + "\". Overwriting it with the maximum value." + linSep);
+      }
+      config.setS3UploadPartSizeKb(S3_MAXIMUM_UPLOAD_PART_SIZE_KB);
+    }
+    config.setS3UploadPartMaxSizeKb(readValue(CFG_S3_UPLOAD_PART_MAX_SIZE_KB,
+        (int) Math.min((long) config.getS3UploadPartSizeKb() * S3_UPLOAD_PART_GROWTH,
+            S3_MAXIMUM_UPLOAD_PART_SIZE_KB)));
+    if (config.getS3UploadPartMaxSizeKb() < config.getS3UploadPartSizeKb()) {
+      if (debug) {
+        debugLogBuilder.append("\"" + CFG_S3_UPLOAD_PART_MAX_SIZE_KB
+            + "\" is smaller than \"" + CFG_S3_UPLOAD_PART_SIZE_KB + "\". Parts won't grow."
+            + linSep);
+      }
+      config.setS3UploadPartMaxSizeKb(config.getS3UploadPartSizeKb());
+    } else if (config.getS3UploadPartMaxSizeKb() > S3_MAXIMUM_UPLOAD_PART_SIZE_KB) {
+      if (debug) {
+        debugLogBuilder.append("\"" + CFG_S3_UPLOAD_PART_MAX_SIZE_KB
+            + "\" is larger than the maximum value \"" + S3_MAXIMUM_UPLOAD_PART_SIZE_KB
+            + "\". Overwriting it with the maximum value." + linSep);
+      }
+      config.setS3UploadPartMaxSizeKb(S3_MAXIMUM_UPLOAD_PART_SIZE_KB);
     }
+    config.setS3MaxFileSizeKb(readValue(CFG_S3_FILE_SIZE_KB, autoTuner != null
+        ? autoTuner.getFileSizeKb(config.getS3UploadPartSizeKb(), config.getS3MaxMessagesPerFile())
+        : 10240));
 
-    config.setS3MaxMessagesPerFile(readValue(CFG_S3_MAX_MESSAGES_PER_FILE,10000));
     config.setS3FileInitiator(readValue(CFG_S3_FILE_INITIATOR,""));
     config.setS3FileTerminator(readValue(CFG_S3_FILE_TERMINATOR, ""));
     config.setS3RecordInitiator(readValue(CFG_S3_RECORD_INITIATOR, ""));
     config.setS3RecordSeparator(readValue(CFG_S3_RECORD_SEPARATOR, linSep));
     config.setS3RecordTerminator(readValue(CFG_S3_RECORD_TERMINATOR, ""));
-    config.setS3UploadThreadsEnabled(readValue(CFG_S3_UPLOAD_THREADS_ENABLED,true));
-    config.setS3UploadThreadCount(readValue(CFG_S3_UPLOAD_THREADS_COUNT,2));
+    config.setS3UploadThreadsAdaptive(readValue(CFG_S3_UPLOAD_THREADS_ADAPTIVE, false));
+    config.setS3UploadThreadsMax(readValue(CFG_S3_UPLOAD_THREADS_MAX,
+        config.getS3UploadThreadCount() * 4));
+    config.setS3UploadMaxRetries(readValue(CFG_S3_UPLOAD_MAX_RETRIES, 5));
+    config.setS3FinalizeMaxPendingFiles(readValue(CFG_S3_FINALIZE_MAX_PENDING_FILES, 2));
+    config.setS3UploadMaxInflightMb(readValue(CFG_S3_UPLOAD_MAX_INFLIGHT_MB, 0));
+    config.setS3PartChecksum(readValue(CFG_S3_PART_CHECKSUM, S3_PART_CHECKSUM_MD5).toUpperCase());
+    config.setS3Compression(readValue(CFG_S3_COMPRESSION, S3_COMPRESSION_NONE).toUpperCase());
+    config.setS3CompressionLevel(readValue(CFG_S3_COMPRESSION_LEVEL, Deflater.DEFAULT_COMPRESSION));
+    config.setS3CompressionParallel(readValue(CFG_S3_COMPRESSION_PARALLEL, false));
+    config.setS3CompressionDictionary(readValue(CFG_S3_COMPRESSION_DICTIONARY, ""));
+    config.setS3PartitionKeySource(
+        readValue(CFG_S3_PARTITION_KEY_SOURCE, S3_PARTITION_KEY_SOURCE_NONE).toUpperCase());
+    config.setS3PartitionKey(readValue(CFG_S3_PARTITION_KEY, ""));
+    config.setS3PartitionName(readValue(CFG_S3_PARTITION_NAME,
+        getDefaultPartitionName(config.getS3PartitionKeySource(), config.getS3PartitionKey())));
+    config.setS3PartitionMaxOpen(readValue(CFG_S3_PARTITION_MAX_OPEN, 16));
+    config.setS3PartitionMaxBufferKb(readValue(CFG_S3_PARTITION_MAX_BUFFER_KB, 65536));
+    config.setS3EventTimeWindow(
+        readValue(CFG_S3_EVENT_TIME_WINDOW, S3_EVENT_TIME_WINDOW_NONE).toUpperCase());
 
   }
 
+  /**
+   * The partition name defaults to the JSON field or the message attribute.
+   * @param source Partition key source.
+   * @param key Partition key.
+   * @return Default Hive partition name.
+   */
+  private static String getDefaultPartitionName(String source, String key) {
+    if (S3_PARTITION_KEY_SOURCE_JSON.equals(source)) {
+      return key.substring(key.lastIndexOf('.') + 1);
+    } else if (S3_PARTITION_KEY_SOURCE_ATTRIBUTE.equals(source)) {
+      return key;
+    }
+    return "partition";
+  }
+
   private int readValue(String key, int defaultValue) {
     int value = defaultValue;
     String envValue = readEnvironmentEntry(key);
@@ -230,7 +427,8 @@ public class ConfigurationInitializer {
           + CFG_MAX_REMAINING_TIME_MS
           + "\" or increase the total Lambda timeout in the AWS Management Console" + linSep);
     }
-    if (config.getSqsSourceQueue() == null || config.getSqsSourceQueue().isEmpty()) {
+    if (sqsQueueRequired
+        && (config.getSqsSourceQueue() == null || config.getSqsSourceQueue().isEmpty())) {
       valid = false;
       valErrors.append("ERROR: A valid SQS source queue name for the environment variable \""
           + CFG_SQS_QUEUE + "\" must be configured in the AWS Management Console." + linSep);
@@ -250,6 +448,104 @@ public class ConfigurationInitializer {
           + S3_FILE_PATTERN_WILDCARD + "\" in the AWS Management Console." + linSep);
     }
 
+    if (!S3_PART_CHECKSUM_MD5.equals(config.getS3PartChecksum())
+        && !S3_PART_CHECKSUM_CRC32C.equals(config.getS3PartChecksum())) {
+      valid = false;
+      valErrors.append("ERROR: The part checksum for the environment variable \""
+          + CFG_S3_PART_CHECKSUM + "\" must be \"" + S3_PART_CHECKSUM_MD5 + "\" or \""
+          + S3_PART_CHECKSUM_CRC32C + "\"." + linSep);
+    }
+
+    if (!S3_COMPRESSION_NONE.equals(config.getS3Compression())
+        && !S3_COMPRESSION_GZIP.equals(config.getS3Compression())
+        && !S3_COMPRESSION_ZLIB.equals(config.getS3Compression())) {
+      valid = false;
+      valErrors.append("ERROR: The compression for the environment variable \""
+          + CFG_S3_COMPRESSION + "\" must be \"" + S3_COMPRESSION_NONE + "\", \""
+          + S3_COMPRESSION_GZIP + "\" or \"" + S3_COMPRESSION_ZLIB + "\"." + linSep);
+    }
+
+    if (!config.getS3CompressionDictionary().isEmpty()
+        && !S3_COMPRESSION_ZLIB.equals(config.getS3Compression())) {
+      valid = false;
+      valErrors.append("ERROR: The dictionary of the environment variable \""
+          + CFG_S3_COMPRESSION_DICTIONARY + "\" requires the compression \""
+          + S3_COMPRESSION_ZLIB + "\"." + linSep);
+    }
+
+    if (config.getS3CompressionLevel() < Deflater.DEFAULT_COMPRESSION
+        || config.getS3CompressionLevel() > Deflater.BEST_COMPRESSION) {
+      valid = false;
+      valErrors.append("ERROR: The compression level for the environment variable \""
+          + CFG_S3_COMPRESSION_LEVEL + "\" must be between " + Deflater.DEFAULT_COMPRESSION
+          + " (default) and " + Deflater.BEST_COMPRESSION + "." + linSep);
+    }
+
+    if (!S3_PARTITION_KEY_SOURCE_NONE.equals(config.getS3PartitionKeySource())
+        && !S3_PARTITION_KEY_SOURCE_JSON.equals(config.getS3PartitionKeySource())
+        && !S3_PARTITION_KEY_SOURCE_ATTRIBUTE.equals(config.getS3PartitionKeySource())
+        && !S3_PARTITION_KEY_SOURCE_REGEX.equals(config.getS3PartitionKeySource())) {
+      valid = false;
+      valErrors.append("ERROR: The partition key source for the environment variable \""
+          + CFG_S3_PARTITION_KEY_SOURCE + "\" must be \"" + S3_PARTITION_KEY_SOURCE_NONE
+          + "\", \"" + S3_PARTITION_KEY_SOURCE_JSON + "\", \""
+          + S3_PARTITION_KEY_SOURCE_ATTRIBUTE + "\" or \"" + S3_PARTITION_KEY_SOURCE_REGEX
+          + "\"." + linSep);
+    } else if (!S3_PARTITION_KEY_SOURCE_NONE.equals(config.getS3PartitionKeySource())) {
+      if (config.getS3PartitionKey().isEmpty()) {
+        valid = false;
+        valErrors.append("ERROR: The partition key for the environment variable \""
+            + CFG_S3_PARTITION_KEY + "\" must be configured." + linSep);
+      } else if (S3_PARTITION_KEY_SOURCE_REGEX.equals(config.getS3PartitionKeySource())) {
+        try {
+          if (Pattern.compile(config.getS3PartitionKey()).matcher("").groupCount() < 1) {
+            valid = false;
+            valErrors.append("ERROR: The regular expression of the environment variable \""
+                + CFG_S3_PARTITION_KEY + "\" must contain a group." + linSep);
+          }
+        } catch (PatternSyntaxException e) {
+          valid = false;
+          valErrors.append("ERROR: The regular expression of the environment variable \""
+              + CFG_S3_PARTITION_KEY + "\" is invalid. " + e.getMessage() + linSep);
+        }
+      }
+      if (config.getS3PartitionMaxOpen() < 1) {
+        valid = false;
+        valErrors.append("ERROR: The environment variable \"" + CFG_S3_PARTITION_MAX_OPEN
+            + "\" must be at least 1." + linSep);
+      }
+    }
+
+    if (config.isS3UploadThreadsAdaptive()
+        && config.getS3UploadThreadsMax() < config.getS3UploadThreadCount()) {
+      valid = false;
+      valErrors.append("ERROR: The environment variable \"" + CFG_S3_UPLOAD_THREADS_MAX
+          + "\" must not be smaller than \"" + CFG_S3_UPLOAD_THREADS_COUNT + "\"." + linSep);
+    }
+
+    if (config.getS3FinalizeMaxPendingFiles() < 0) {
+      valid = false;
+      valErrors.append("ERROR: The environment variable \"" + CFG_S3_FINALIZE_MAX_PENDING_FILES
+          + "\" must not be negative." + linSep);
+    }
+
+    if (config.getS3UploadMaxInflightMb() < 0) {
+      valid = false;
+      valErrors.append("ERROR: The environment variable \"" + CFG_S3_UPLOAD_MAX_INFLIGHT_MB
+          + "\" must not be negative." + linSep);
+    }
+
+    if (!S3_EVENT_TIME_WINDOW_NONE.equals(config.getS3EventTimeWindow())
+        && !S3_EVENT_TIME_WINDOW_DAY.equals(config.getS3EventTimeWindow())
+        && !S3_EVENT_TIME_WINDOW_HOUR.equals(config.getS3EventTimeWindow())
+        && !S3_EVENT_TIME_WINDOW_MINUTE.equals(config.getS3EventTimeWindow())) {
+      valid = false;
+      valErrors.append("ERROR: The event time window for the environment variable \""
+          + CFG_S3_EVENT_TIME_WINDOW + "\" must be \"" + S3_EVENT_TIME_WINDOW_NONE + "\", \""
+          + S3_EVENT_TIME_WINDOW_DAY + "\", \"" + S3_EVENT_TIME_WINDOW_HOUR + "\" or \""
+          + S3_EVENT_TIME_WINDOW_MINUTE + "\"." + linSep);
+    }
+
     if (!valid) {
       context.getLogger().log(valErrors.toString());
       throw new IllegalArgumentException(valErrors.toString());
@@ -0,0 +1,193 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.Config;
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.ConfigurationInitializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Trains a preset dictionary for the zlib compression from sample files written by this Lambda.
+ * Records are split into segments at JSON delimiters, the segments which save the most bytes
+ * across the sample are added to the dictionary. The most valuable segments are placed at the
+ * end, as deflate encodes short distances cheaper.
+ *
+ * <p>Usage: DictionaryTrainer [dictionary file] [sample file]... Gzip compressed samples are
+ * detected by the ".gz" extension. The samples are split into records by the S3_File_*,
+ * S3_Record_* variables of the environment, which are set as for the Lambda. It is a tool
+ * and not part of the Lambda.
+ *
+ * @author Udo Held
+ */
+public class DictionaryTrainer {
+
+  /**
+   * Trains a dictionary from the sample files and writes it to the dictionary file.
+   * @param args Dictionary file followed by the sample files.
+   * @throws IOException If a file can't be read or written.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: DictionaryTrainer [dictionary file] [sample file]...");
+      System.exit(1);
+    }
+    Config config = readFraming();
+    List<String> records = new ArrayList<>();
+    for (int i = 1; i < args.length; i++) {
+      records.addAll(readRecords(args[i], config));
+    }
+    byte[] dictionary = train(records, CompressionDictionary.MAX_DICTIONARY_SIZE);
+    Files.write(Paths.get(args[0]), dictionary);
+    System.out.println("Wrote a dictionary of " + dictionary.length + " bytes trained on "
+        + records.size() + " records.");
+  }
+
+  /**
+   * Trains a dictionary.
+   * @param records Sample records.
+   * @param maxSize Maximum dictionary size in bytes.
+   * @return Dictionary.
+   */
+  static byte[] train(List<String> records, int maxSize) {
+    Map<String, Integer> segmentCounts = new HashMap<>();
+    for (String record : records) {
+      int start = 0;
+      for (int i = 0; i < record.length(); i++) {
+        char character = record.charAt(i);
+        if (character == ',' || character == ':' || character == '{' || character == '['
+            || i == record.length() - 1) {
+          segmentCounts.merge(record.substring(start, i + 1), 1, Integer::sum);
+          start = i + 1;
+        }
+      }
+    }
+
+    List<Map.Entry<String, Integer>> segments = new ArrayList<>();
+    segmentCounts.entrySet().stream()
+        .filter(segment -> segment.getValue() > 1 && segment.getKey().length() > 2)
+        .forEach(segments::add);
+    segments.sort((first, second) -> Long.compare(savings(second), savings(first)));
+
+    List<byte[]> selected = new ArrayList<>();
+    int size = 0;
+    for (Map.Entry<String, Integer> segment : segments) {
+      byte[] bytes = segment.getKey().getBytes(StandardCharsets.UTF_8);
+      if (size + bytes.length <= maxSize) {
+        selected.add(bytes);
+        size += bytes.length;
+      }
+    }
+
+    byte[] dictionary = new byte[size];
+    int position = 0;
+    for (int i = selected.size() - 1; i >= 0; i--) {
+      byte[] bytes = selected.get(i);
+      System.arraycopy(bytes, 0, dictionary, position, bytes.length);
+      position += bytes.length;
+    }
+    return dictionary;
+  }
+
+  private static long savings(Map.Entry<String, Integer> segment) {
+    return (long) segment.getValue() * segment.getKey().length();
+  }
+
+  /**
+   * Splits the content of a file written by the Lambda into its records. Records containing
+   * the delimiter between two records are split into several segments.
+   * @param content File content.
+   * @param config Configuration with the file and record delimiters.
+   * @return Records.
+   */
+  static List<String> splitRecords(String content, Config config) {
+    String fileInitiator = nullToEmpty(config.getS3FileInitiator());
+    String fileTerminator = nullToEmpty(config.getS3FileTerminator());
+    String recordInitiator = nullToEmpty(config.getS3RecordInitiator());
+    String recordTerminator = nullToEmpty(config.getS3RecordTerminator());
+    String delimiter = recordTerminator + nullToEmpty(config.getS3RecordSeparator())
+        + recordInitiator;
+
+    int start = 0;
+    int end = content.length();
+    if (content.startsWith(fileInitiator + recordInitiator)) {
+      start = fileInitiator.length() + recordInitiator.length();
+    }
+    if (content.endsWith(recordTerminator + fileTerminator)
+        && end - recordTerminator.length() - fileTerminator.length() >= start) {
+      end -= recordTerminator.length() + fileTerminator.length();
+    }
+
+    List<String> records = new ArrayList<>();
+    while (start < end) {
+      int next = delimiter.isEmpty() ? -1 : content.indexOf(delimiter, start);
+      if (next < 0 || next >= end) {
+        next = end;
+      }
+      if (next > start) {
+        records.add(content.substring(start, next));
+      }
+      start = next + delimiter.length();
+    }
+    return records;
+  }
+
+  private static List<String> readRecords(String file, Config config) throws IOException {
+    InputStream in = Files.newInputStream(Paths.get(file));
+    if (file.endsWith(".gz")) {
+      in = new GZIPInputStream(in);
+    }
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    try (InputStream input = in) {
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = input.read(buffer)) != -1) {
+        content.write(buffer, 0, read);
+      }
+    }
+    return splitRecords(new String(content.toByteArray(), StandardCharsets.UTF_8), config);
+  }
+
+  private static Config readFraming() {
+    Config config = new Config();
+    config.setS3FileInitiator(System.getenv(ConfigurationInitializer.CFG_S3_FILE_INITIATOR));
+    config.setS3FileTerminator(System.getenv(ConfigurationInitializer.CFG_S3_FILE_TERMINATOR));
+    config.setS3RecordInitiator(
+        System.getenv(ConfigurationInitializer.CFG_S3_RECORD_INITIATOR));
+    String separator = System.getenv(ConfigurationInitializer.CFG_S3_RECORD_SEPARATOR);
+    config.setS3RecordSeparator(separator == null ? System.lineSeparator() : separator);
+    config.setS3RecordTerminator(
+        System.getenv(ConfigurationInitializer.CFG_S3_RECORD_TERMINATOR));
+    return config;
+  }
+
+  private static String nullToEmpty(String value) {
+    return value == null ? "" : value;
+  }
+}
@@ -0,0 +1,212 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory stand-in for S3, which stores the objects of multipart and single part uploads.
+ * Requests can be delayed or fail on purpose.
+ *
+ * @author Udo Held
+ */
+public class StandInS3Client extends AbstractAmazonS3 {
+
+  private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+  private final Map<String, Map<String, String>> objectHeaders = new ConcurrentHashMap<>();
+  private final Map<String, String> uploadKeys = new ConcurrentHashMap<>();
+  private final Map<String, SortedMap<Integer, byte[]>> uploadParts = new ConcurrentHashMap<>();
+  private final Map<Integer, AtomicInteger> partRequests = new ConcurrentHashMap<>();
+  private final Set<Integer> failOnceParts = ConcurrentHashMap.newKeySet();
+  private final Set<String> failCompleteKeys = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger uploadCounter = new AtomicInteger();
+  private final AtomicInteger abortedUploads = new AtomicInteger();
+  private final AtomicInteger runningCompletes = new AtomicInteger();
+  private final AtomicInteger maxConcurrentCompletes = new AtomicInteger();
+  private volatile long completeLatencyMs;
+
+  @Override
+  public InitiateMultipartUploadResult initiateMultipartUpload(
+      InitiateMultipartUploadRequest request) {
+    String uploadId = "upload-" + uploadCounter.incrementAndGet();
+    uploadKeys.put(uploadId, request.getKey());
+    uploadParts.put(uploadId, new TreeMap<>());
+    InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+    result.setUploadId(uploadId);
+    return result;
+  }
+
+  @Override
+  public UploadPartResult uploadPart(UploadPartRequest request) {
+    partRequests.computeIfAbsent(request.getPartNumber(), number -> new AtomicInteger())
+        .incrementAndGet();
+    byte[] content = readFully(request.getInputStream());
+    if (failOnceParts.remove(request.getPartNumber())) {
+      AmazonS3Exception exception = new AmazonS3Exception("We encountered an internal error.");
+      exception.setStatusCode(500);
+      exception.setErrorCode("InternalError");
+      throw exception;
+    }
+    SortedMap<Integer, byte[]> parts = uploadParts.get(request.getUploadId());
+    synchronized (parts) {
+      parts.put(request.getPartNumber(), content);
+    }
+    UploadPartResult result = new UploadPartResult();
+    result.setPartNumber(request.getPartNumber());
+    result.setETag("etag-" + request.getPartNumber());
+    return result;
+  }
+
+  @Override
+  public CompleteMultipartUploadResult completeMultipartUpload(
+      CompleteMultipartUploadRequest request) {
+    SortedMap<Integer, byte[]> parts = uploadParts.get(request.getUploadId());
+    ByteArrayOutputStream object = new ByteArrayOutputStream();
+    for (PartETag partETag : request.getPartETags()) {
+      byte[] part = parts.get(partETag.getPartNumber());
+      object.write(part, 0, part.length);
+    }
+    storeObject(request.getKey(), object.toByteArray());
+    uploadParts.remove(request.getUploadId());
+    CompleteMultipartUploadResult result = new CompleteMultipartUploadResult();
+    result.setKey(request.getKey());
+    return result;
+  }
+
+  @Override
+  public void abortMultipartUpload(AbortMultipartUploadRequest request) {
+    abortedUploads.incrementAndGet();
+    uploadParts.remove(request.getUploadId());
+  }
+
+  @Override
+  public PutObjectResult putObject(PutObjectRequest request) {
+    storeObject(request.getKey(), readFully(request.getInputStream()));
+    objectHeaders.put(request.getKey(), request.getCustomRequestHeaders() == null
+        ? new ConcurrentHashMap<>() : request.getCustomRequestHeaders());
+    return new PutObjectResult();
+  }
+
+  /**
+   * Stores the object of a completed multipart upload or a single part upload.
+   * @param key Object key.
+   * @param content Object content.
+   */
+  private void storeObject(String key, byte[] content) {
+    int running = runningCompletes.incrementAndGet();
+    maxConcurrentCompletes.accumulateAndGet(running, Math::max);
+    try {
+      StandInSqsClient.sleep(completeLatencyMs);
+      if (failCompleteKeys.contains(key)) {
+        AmazonS3Exception exception = new AmazonS3Exception("Access Denied");
+        exception.setStatusCode(403);
+        exception.setErrorCode("AccessDenied");
+        throw exception;
+      }
+      objects.put(key, content);
+    } finally {
+      runningCompletes.decrementAndGet();
+    }
+  }
+
+  /**
+   * The first request of this part number fails with a 500 response.
+   * @param partNumber Part number.
+   */
+  public void failPartOnce(int partNumber) {
+    failOnceParts.add(partNumber);
+  }
+
+  /**
+   * Completing the upload of this key, multipart or single part, fails with a permanent error.
+   * @param key Object key.
+   */
+  public void failComplete(String key) {
+    failCompleteKeys.add(key);
+  }
+
+  public void setCompleteLatencyMs(long completeLatencyMs) {
+    this.completeLatencyMs = completeLatencyMs;
+  }
+
+  public Map<String, byte[]> getObjects() {
+    return objects;
+  }
+
+  public Map<String, String> getObjectHeaders(String key) {
+    return objectHeaders.get(key);
+  }
+
+  public int getPartRequests(int partNumber) {
+    AtomicInteger requests = partRequests.get(partNumber);
+    return requests == null ? 0 : requests.get();
+  }
+
+  public int getAbortedUploads() {
+    return abortedUploads.get();
+  }
+
+  /**
+   * Uploads, which are currently being completed.
+   * @return Running completions.
+   */
+  public int getRunningCompletes() {
+    return runningCompletes.get();
+  }
+
+  public int getMaxConcurrentCompletes() {
+    return maxConcurrentCompletes.get();
+  }
+
+  private static byte[] readFully(InputStream input) {
+    try {
+      ByteArrayOutputStream content = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = input.read(buffer)) != -1) {
+        content.write(buffer, 0, read);
+      }
+      return content.toByteArray();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
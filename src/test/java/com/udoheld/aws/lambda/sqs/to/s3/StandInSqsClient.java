@@ -0,0 +1,224 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import com.amazonaws.services.sqs.AbstractAmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResultEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory stand-in for SQS, which serves a fixed number of messages with an artificial
+ * latency per call.
+ *
+ * @author Udo Held
+ */
+public class StandInSqsClient extends AbstractAmazonSQS {
+
+  private final AtomicInteger remainingMessages;
+  private final AtomicInteger messageCounter = new AtomicInteger();
+  private final AtomicInteger receiveCalls = new AtomicInteger();
+  private final List<Integer> waitTimeSeconds = new CopyOnWriteArrayList<>();
+  private final AtomicInteger runningReceives = new AtomicInteger();
+  private final AtomicInteger maxConcurrentReceives = new AtomicInteger();
+  private final long receiveLatencyMs;
+
+  private final Set<String> deletedHandles = ConcurrentHashMap.newKeySet();
+  private final Set<String> releasedHandles = ConcurrentHashMap.newKeySet();
+  private final Set<String> failOnceHandles = ConcurrentHashMap.newKeySet();
+  private final Set<String> invalidHandles = ConcurrentHashMap.newKeySet();
+  private final Set<Thread> deletionThreads = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger runningDeletions = new AtomicInteger();
+  private volatile CountDownLatch heldDeletions = new CountDownLatch(0);
+
+  public StandInSqsClient(int messageCount, long receiveLatencyMs) {
+    this.remainingMessages = new AtomicInteger(messageCount);
+    this.receiveLatencyMs = receiveLatencyMs;
+  }
+
+  @Override
+  public ReceiveMessageResult receiveMessage(ReceiveMessageRequest request) {
+    receiveCalls.incrementAndGet();
+    waitTimeSeconds.add(request.getWaitTimeSeconds());
+    maxConcurrentReceives.accumulateAndGet(runningReceives.incrementAndGet(), Math::max);
+    try {
+      sleep(receiveLatencyMs);
+    } finally {
+      runningReceives.decrementAndGet();
+    }
+
+    int maxMessages = request.getMaxNumberOfMessages() == null
+        ? 1 : request.getMaxNumberOfMessages();
+    List<Message> messages = new ArrayList<>();
+    while (messages.size() < maxMessages && remainingMessages.getAndDecrement() > 0) {
+      int number = messageCounter.incrementAndGet();
+      messages.add(new Message()
+          .withMessageId("id-" + number)
+          .withReceiptHandle("handle-" + number)
+          .withBody("Test message " + number));
+    }
+    return new ReceiveMessageResult().withMessages(messages);
+  }
+
+  @Override
+  public DeleteMessageBatchResult deleteMessageBatch(DeleteMessageBatchRequest request) {
+    deletionThreads.add(Thread.currentThread());
+    runningDeletions.incrementAndGet();
+    try {
+      heldDeletions.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      runningDeletions.decrementAndGet();
+    }
+    DeleteMessageBatchResult result = new DeleteMessageBatchResult();
+    for (DeleteMessageBatchRequestEntry entry : request.getEntries()) {
+      String handle = entry.getReceiptHandle();
+      if (invalidHandles.contains(handle)) {
+        result.getFailed().add(new BatchResultErrorEntry()
+            .withId(entry.getId()).withCode("ReceiptHandleIsInvalid").withSenderFault(true));
+      } else if (failOnceHandles.remove(handle)) {
+        result.getFailed().add(new BatchResultErrorEntry()
+            .withId(entry.getId()).withCode("InternalError").withSenderFault(false));
+      } else {
+        deletedHandles.add(handle);
+        result.getSuccessful().add(new DeleteMessageBatchResultEntry().withId(entry.getId()));
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public ChangeMessageVisibilityBatchResult changeMessageVisibilityBatch(
+      ChangeMessageVisibilityBatchRequest request) {
+    ChangeMessageVisibilityBatchResult result = new ChangeMessageVisibilityBatchResult();
+    for (ChangeMessageVisibilityBatchRequestEntry entry : request.getEntries()) {
+      if (entry.getVisibilityTimeout() != null && entry.getVisibilityTimeout() == 0) {
+        releasedHandles.add(entry.getReceiptHandle());
+      }
+      result.getSuccessful().add(
+          new ChangeMessageVisibilityBatchResultEntry().withId(entry.getId()));
+    }
+    return result;
+  }
+
+  /**
+   * The first deletion of this receipt handle fails with a server side error.
+   * @param handle Receipt handle.
+   */
+  public void failDeletionOnce(String handle) {
+    failOnceHandles.add(handle);
+  }
+
+  /**
+   * Every deletion of this receipt handle fails with a sender fault.
+   * @param handle Receipt handle.
+   */
+  public void failDeletionAlways(String handle) {
+    invalidHandles.add(handle);
+  }
+
+  public Set<String> getDeletedHandles() {
+    return deletedHandles;
+  }
+
+  /**
+   * Deletion requests wait until {@link #releaseDeletions()} is called.
+   */
+  public void holdDeletions() {
+    heldDeletions = new CountDownLatch(1);
+  }
+
+  public void releaseDeletions() {
+    heldDeletions.countDown();
+  }
+
+  /**
+   * Deletion requests, which are currently waiting for SQS.
+   * @return Running deletion requests.
+   */
+  public int getRunningDeletions() {
+    return runningDeletions.get();
+  }
+
+  /**
+   * Threads, which have sent deletion requests.
+   * @return Deletion threads.
+   */
+  public Set<Thread> getDeletionThreads() {
+    return deletionThreads;
+  }
+
+  /**
+   * Receipt handles, whose visibility timeout has been reset to 0.
+   * @return Released receipt handles.
+   */
+  public Set<String> getReleasedHandles() {
+    return releasedHandles;
+  }
+
+  public int getReceivedMessages() {
+    return messageCounter.get();
+  }
+
+  public int getReceiveCalls() {
+    return receiveCalls.get();
+  }
+
+  /**
+   * Long polling wait times of the receive calls in call order.
+   * @return Wait times in seconds.
+   */
+  public List<Integer> getWaitTimeSeconds() {
+    return waitTimeSeconds;
+  }
+
+  /**
+   * Highest number of receive calls, which have been waiting for SQS at the same time.
+   * @return Concurrent receive calls.
+   */
+  public int getMaxConcurrentReceives() {
+    return maxConcurrentReceives.get();
+  }
+
+  static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
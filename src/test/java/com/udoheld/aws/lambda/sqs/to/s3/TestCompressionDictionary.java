@@ -0,0 +1,181 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.Config;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Udo Held
+ */
+public class TestCompressionDictionary {
+
+  private static final int RECORDS_PER_FILE = 4;
+
+  private Logger log = Logger.getLogger(this.getClass().getName());
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testDictionaryRoundTrip() throws IOException, DataFormatException {
+    byte[] dictionary = DictionaryTrainer.train(generateRecords(new Random(1), 2000),
+        CompressionDictionary.MAX_DICTIONARY_SIZE);
+    File dictionaryFile = folder.newFile("dictionary.bin");
+    Files.write(dictionaryFile.toPath(), dictionary);
+    assertArrayEquals(dictionary, CompressionDictionary.load(dictionaryFile.getPath()));
+
+    byte[] content = String.join("\n", generateRecords(new Random(2), RECORDS_PER_FILE))
+        .getBytes(StandardCharsets.UTF_8);
+    byte[] compressed = compress(content, dictionary);
+
+    Inflater inflater = new Inflater();
+    inflater.setInput(compressed);
+    byte[] decompressed = new byte[content.length];
+    int length = inflater.inflate(decompressed);
+    assertTrue(inflater.needsDictionary());
+    inflater.setDictionary(dictionary);
+    inflater.inflate(decompressed, length, decompressed.length - length);
+    inflater.end();
+    assertArrayEquals(content, decompressed);
+  }
+
+  @Test
+  public void testSamplesAreSplitByTheFraming() throws IOException {
+    Config config = new Config();
+    config.setS3FileInitiator("[\n");
+    config.setS3FileTerminator("\n]");
+    config.setS3RecordInitiator("<");
+    config.setS3RecordSeparator(",\n");
+    config.setS3RecordTerminator(">");
+    List<String> records = Arrays.asList("{\"a\":1}", "{\"b\":\n2}", "{\"c\":3}");
+    PartBuffer buffer = new PartBuffer(PartBuffer.ChecksumType.NONE);
+    RecordFramer framer = new RecordFramer(config);
+    for (int i = 0; i < records.size(); i++) {
+      framer.writeRecord(buffer, records.get(i), i == 0);
+    }
+    framer.writeFileTerminator(buffer);
+    byte[] content = new byte[buffer.size()];
+    try (InputStream in = buffer.newInputStream()) {
+      int read = 0;
+      while (read < content.length) {
+        read += in.read(content, read, content.length - read);
+      }
+    }
+    buffer.release();
+
+    assertEquals(records,
+        DictionaryTrainer.splitRecords(new String(content, StandardCharsets.UTF_8), config));
+  }
+
+  @Test
+  public void testSmallFileBenchmark() {
+    byte[] dictionary = DictionaryTrainer.train(generateRecords(new Random(3), 2000),
+        CompressionDictionary.MAX_DICTIONARY_SIZE);
+    List<byte[]> files = new ArrayList<>();
+    Random random = new Random(4);
+    long uncompressed = 0;
+    for (int i = 0; i < 2000; i++) {
+      byte[] file = String.join("\n", generateRecords(random, RECORDS_PER_FILE))
+          .getBytes(StandardCharsets.UTF_8);
+      files.add(file);
+      uncompressed += file.length;
+    }
+
+    // Warm up both variants before measuring.
+    measure(files, null);
+    measure(files, dictionary);
+    long start = System.nanoTime();
+    long plainSize = measure(files, null);
+    long plainNanos = System.nanoTime() - start;
+    start = System.nanoTime();
+    long dictionarySize = measure(files, dictionary);
+    long dictionaryNanos = System.nanoTime() - start;
+
+    log.info(String.format("Small files of %d records, plain: ratio %.2f, %d MB/s; "
+            + "dictionary: ratio %.2f, %d MB/s", RECORDS_PER_FILE,
+        (double) uncompressed / plainSize, uncompressed * 1000 / Math.max(plainNanos, 1),
+        (double) uncompressed / dictionarySize,
+        uncompressed * 1000 / Math.max(dictionaryNanos, 1)));
+    assertTrue(dictionarySize < plainSize * 3 / 4);
+  }
+
+  private static long measure(List<byte[]> files, byte[] dictionary) {
+    long size = 0;
+    for (byte[] file : files) {
+      size += compress(file, dictionary).length;
+    }
+    return size;
+  }
+
+  private static byte[] compress(byte[] content, byte[] dictionary) {
+    PartCompressor compressor =
+        new PartCompressor(Deflater.DEFAULT_COMPRESSION, false, dictionary);
+    PartBuffer staging = new PartBuffer(PartBuffer.ChecksumType.NONE);
+    staging.write(content, 0, content.length);
+    PartBuffer part = new PartBuffer(PartBuffer.ChecksumType.NONE);
+    compressor.compress(staging, part, true);
+    byte[] compressed = new byte[part.size()];
+    int position = 0;
+    for (int i = 0; i < part.getChunkCount(); i++) {
+      System.arraycopy(part.getChunk(i), 0, compressed, position, part.getChunkLength(i));
+      position += part.getChunkLength(i);
+    }
+    staging.release();
+    part.release();
+    return compressed;
+  }
+
+  private static List<String> generateRecords(Random random, int count) {
+    String[] states = {"created", "paid", "shipped", "delivered", "cancelled"};
+    String[] countries = {"DE", "US", "FR", "GB", "NL", "ES"};
+    List<String> records = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      records.add("{\"eventType\":\"OrderStatusChanged\",\"version\":2,\"orderId\":\""
+          + Long.toHexString(random.nextLong()) + "\",\"customerId\":" + random.nextInt(1000000)
+          + ",\"status\":\"" + states[random.nextInt(states.length)] + "\",\"shippingAddress\":"
+          + "{\"country\":\"" + countries[random.nextInt(countries.length)]
+          + "\",\"zipCode\":\"" + (10000 + random.nextInt(89999)) + "\"},\"amount\":{"
+          + "\"currency\":\"EUR\",\"value\":" + random.nextInt(100000) / 100.0 + "},"
+          + "\"source\":\"web-shop\",\"timestamp\":\"2017-03-0" + (1 + random.nextInt(9))
+          + "T12:" + (10 + random.nextInt(50)) + ":00Z\"}");
+    }
+    return records;
+  }
+}
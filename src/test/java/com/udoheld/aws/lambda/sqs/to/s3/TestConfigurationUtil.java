@@ -137,6 +137,15 @@ public class TestConfigurationUtil {
         ConfigurationInitializer.CFG_MAX_REMAINING_TIME_MS,
         ConfigurationInitializer.CFG_MAX_REMAINING_PCT,
         ConfigurationInitializer.CFG_SQS_QUEUE,
+        ConfigurationInitializer.CFG_SQS_DELETION_MAX_RETRIES,
+        ConfigurationInitializer.CFG_SQS_RECEIVE_THREADS,
+        ConfigurationInitializer.CFG_SQS_RECEIVE_QUEUE_BATCHES,
+        ConfigurationInitializer.CFG_SQS_RECEIVE_PREFETCH_ENABLED,
+        ConfigurationInitializer.CFG_SQS_RECEIVE_WAIT_TIME_SECONDS,
+        ConfigurationInitializer.CFG_SQS_RECEIVE_MAX_EMPTY_RECEIVES,
+        ConfigurationInitializer.CFG_SQS_RECEIVE_CHECK_APPROXIMATE_COUNT,
+        ConfigurationInitializer.CFG_SQS_VISIBILITY_TIMEOUT_SECONDS,
+        ConfigurationInitializer.CFG_SQS_VISIBILITY_HEARTBEAT_MARGIN_SECONDS,
         ConfigurationInitializer.CFG_S3_BUCKET_NAME,
         ConfigurationInitializer.CFG_S3_BUCKET_FOLDER,
         ConfigurationInitializer.CFG_S3_FILE_PATTERN,
@@ -145,7 +154,26 @@ public class TestConfigurationUtil {
         ConfigurationInitializer.CFG_S3_MAX_MESSAGES_PER_FILE,
         ConfigurationInitializer.CFG_S3_RECORD_SEPARATOR,
         ConfigurationInitializer.CFG_S3_UPLOAD_THREADS_ENABLED,
-        ConfigurationInitializer.CFG_S3_UPLOAD_THREADS_COUNT
+        ConfigurationInitializer.CFG_S3_UPLOAD_THREADS_COUNT,
+        ConfigurationInitializer.CFG_S3_PART_CHECKSUM,
+        ConfigurationInitializer.CFG_S3_COMPRESSION,
+        ConfigurationInitializer.CFG_S3_COMPRESSION_LEVEL,
+        ConfigurationInitializer.CFG_S3_COMPRESSION_PARALLEL,
+        ConfigurationInitializer.CFG_S3_COMPRESSION_DICTIONARY,
+        ConfigurationInitializer.CFG_S3_PARTITION_KEY_SOURCE,
+        ConfigurationInitializer.CFG_S3_PARTITION_KEY,
+        ConfigurationInitializer.CFG_S3_PARTITION_NAME,
+        ConfigurationInitializer.CFG_S3_PARTITION_MAX_OPEN,
+        ConfigurationInitializer.CFG_S3_PARTITION_MAX_BUFFER_KB,
+        ConfigurationInitializer.CFG_S3_EVENT_TIME_WINDOW,
+        ConfigurationInitializer.CFG_S3_UPLOAD_MAX_RETRIES,
+        ConfigurationInitializer.CFG_S3_UPLOAD_MAX_INFLIGHT_MB,
+        ConfigurationInitializer.CFG_AUTO_TUNE,
+        ConfigurationInitializer.CFG_S3_UPLOAD_PART_MAX_SIZE_KB,
+        ConfigurationInitializer.CFG_S3_UPLOAD_THREADS_ADAPTIVE,
+        ConfigurationInitializer.CFG_S3_UPLOAD_THREADS_MAX,
+        ConfigurationInitializer.CFG_PREDICTIVE_TIME_BUDGET,
+        ConfigurationInitializer.CFG_S3_FINALIZE_MAX_PENDING_FILES
     };
     Arrays.stream(configurationParameters)
         .filter(key -> System.getProperties().containsKey(key))
@@ -0,0 +1,60 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.Config;
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that warm invocations reuse the container resources.
+ *
+ * @author Udo Held
+ */
+public class TestContainerResources {
+
+  @Test
+  public void testResourcesAreReused() {
+    ContainerResources first = ContainerResources.get(initConfig(2));
+    ContainerResources second = ContainerResources.get(initConfig(2));
+
+    assertSame(first, second);
+    assertSame(first.getUploadExecutor(), second.getUploadExecutor());
+    assertSame(first.getDeletionExecutor(), second.getDeletionExecutor());
+  }
+
+  @Test
+  public void testResourcesAreRebuiltOnChangedThreads() {
+    ContainerResources first = ContainerResources.get(initConfig(2));
+    ContainerResources second = ContainerResources.get(initConfig(3));
+
+    assertNotSame(first, second);
+    assertTrue(first.getUploadExecutor().isShutdown());
+  }
+
+  private Config initConfig(int uploadThreads) {
+    Config config = new Config();
+    config.setS3UploadThreadCount(uploadThreads);
+    config.setSqsDeletionThreads(2);
+    return config;
+  }
+}
@@ -0,0 +1,155 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import com.amazonaws.services.s3.internal.SkipMd5CheckStrategy;
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.Config;
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.ConfigurationInitializer;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.logging.Logger;
+import java.util.zip.Checksum;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Udo Held
+ */
+public class TestCrc32c {
+
+  private Logger log = Logger.getLogger(this.getClass().getName());
+
+  @Test
+  public void testKnownValue() {
+    byte[] check = "123456789".getBytes(StandardCharsets.US_ASCII);
+    Checksum tableCrc = new Crc32c();
+    tableCrc.update(check, 0, check.length);
+    assertEquals(0xe3069283L, tableCrc.getValue());
+
+    Checksum crc = Crc32c.create();
+    crc.update(check, 0, check.length);
+    assertEquals(0xe3069283L, crc.getValue());
+  }
+
+  @Test
+  public void testIncrementalPartChecksum() {
+    byte[] content = new byte[PartBuffer.CHUNK_SIZE * 2 + 11];
+    new Random(5).nextBytes(content);
+    Checksum expected = new Crc32c();
+    expected.update(content, 0, content.length);
+
+    PartBuffer buffer = new PartBuffer(PartBuffer.ChecksumType.CRC32C);
+    for (int i = 0; i < content.length; i += 999) {
+      buffer.write(content, i, Math.min(999, content.length - i));
+    }
+    assertEquals(expected.getValue(), buffer.crc32cChecksum());
+    assertNull(buffer.md5Digest());
+    buffer.release();
+  }
+
+  @Test
+  public void testSinglePartSendsChecksum() {
+    Config config = new Config();
+    config.setS3BucketName("bucket");
+    config.setS3PartChecksum(ConfigurationInitializer.S3_PART_CHECKSUM_CRC32C);
+    StandInS3Client s3Client = new StandInS3Client();
+    ContainerResources.get(config).setS3Client(s3Client);
+
+    byte[] check = "123456789".getBytes(StandardCharsets.US_ASCII);
+    PartBuffer buffer = new PartBuffer(PartBuffer.ChecksumType.CRC32C);
+    buffer.write(check, 0, check.length);
+    S3MultiPartFileHandler handler = S3MultiPartFileHandler.startFileUpload("checksum", config,
+        TestConfigurationUtil.initContext(log, 20000).getLogger());
+    handler.uploadPart(buffer, true);
+
+    assertTrue(handler.finalizeMultipartUpload());
+    assertEquals(Crc32c.toBase64(0xe3069283L),
+        s3Client.getObjectHeaders("checksum").get("x-amz-checksum-crc32c"));
+    assertEquals(Crc32c.toBase64(0xe3069283L), handler.getObjectChecksum());
+    // The SDK keeps verifying the MD5 of multipart parts.
+    assertNull(
+        System.getProperty(SkipMd5CheckStrategy.DISABLE_PUT_OBJECT_MD5_VALIDATION_PROPERTY));
+  }
+
+  @Test
+  public void testMultipartPartsKeepMd5() {
+    Config config = new Config();
+    config.setS3BucketName("bucket");
+    config.setS3PartChecksum(ConfigurationInitializer.S3_PART_CHECKSUM_CRC32C);
+    config.setS3UploadThreadCount(1);
+    StandInS3Client s3Client = new StandInS3Client();
+    ContainerResources.get(config).setS3Client(s3Client);
+
+    S3MultiPartFileHandler handler = S3MultiPartFileHandler.startFileUpload("multipart", config,
+        TestConfigurationUtil.initContext(log, 20000).getLogger());
+    for (int i = 0; i < 2; i++) {
+      byte[] check = "123456789".getBytes(StandardCharsets.US_ASCII);
+      PartBuffer buffer = new PartBuffer(PartBuffer.ChecksumType.CRC32C);
+      buffer.write(check, 0, check.length);
+      handler.uploadPart(buffer, i == 1);
+    }
+
+    assertTrue(handler.finalizeMultipartUpload());
+    assertEquals(1, s3Client.getPartRequests(2));
+    assertEquals("123456789123456789",
+        new String(s3Client.getObjects().get("multipart"), StandardCharsets.US_ASCII));
+    assertNull(handler.getObjectChecksum());
+  }
+
+  @Test
+  public void testThroughputAgainstMd5() throws NoSuchAlgorithmException {
+    byte[] content = new byte[8 * 1024 * 1024];
+    new Random(1).nextBytes(content);
+    MessageDigest md5 = MessageDigest.getInstance("MD5");
+    Checksum crc = Crc32c.create();
+
+    // Warm up both implementations before measuring.
+    for (int i = 0; i < 3; i++) {
+      md5.update(content);
+      md5.digest();
+      crc.update(content, 0, content.length);
+      crc.reset();
+    }
+
+    long start = System.nanoTime();
+    for (int i = 0; i < 4; i++) {
+      md5.update(content);
+    }
+    md5.digest();
+    long md5Nanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < 4; i++) {
+      crc.update(content, 0, content.length);
+    }
+    crc.getValue();
+    long crcNanos = System.nanoTime() - start;
+
+    long megaBytes = 4L * content.length / (1024 * 1024);
+    log.info("MD5: " + megaBytes * 1_000_000_000L / Math.max(md5Nanos, 1) + " MB/s, "
+        + crc.getClass().getName() + ": " + megaBytes * 1_000_000_000L / Math.max(crcNanos, 1)
+        + " MB/s");
+  }
+}
@@ -0,0 +1,108 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Udo Held
+ */
+public class TestPartBuffer {
+
+  @Test
+  public void testWriteAndStreamAcrossChunks() throws IOException {
+    byte[] content = new byte[PartBuffer.CHUNK_SIZE * 3 + 17];
+    new Random(42).nextBytes(content);
+
+    PartBuffer buffer = new PartBuffer();
+    buffer.write(content[0]);
+    buffer.write(content, 1, 1000);
+    buffer.write(content, 1001, content.length - 1001);
+
+    assertEquals(content.length, buffer.size());
+    assertEquals(4, buffer.getChunkCount());
+    assertEquals(17, buffer.getChunkLength(3));
+    assertArrayEquals(content, readFully(buffer.newInputStream()));
+    buffer.release();
+  }
+
+  @Test
+  public void testIncrementalMd5() throws NoSuchAlgorithmException {
+    byte[] content = new byte[PartBuffer.CHUNK_SIZE * 2 + 5];
+    new Random(3).nextBytes(content);
+
+    for (int round = 0; round < 2; round++) {
+      PartBuffer buffer = new PartBuffer();
+      for (int i = 0; i < content.length; i += 1000) {
+        buffer.write(content, i, Math.min(1000, content.length - i));
+      }
+      assertArrayEquals(MessageDigest.getInstance("MD5").digest(content), buffer.md5Digest());
+      buffer.release();
+    }
+  }
+
+  @Test
+  public void testMarkAndReset() throws IOException {
+    byte[] content = new byte[PartBuffer.CHUNK_SIZE + 100];
+    new Random(7).nextBytes(content);
+    PartBuffer buffer = new PartBuffer();
+    buffer.write(content, 0, content.length);
+
+    InputStream in = buffer.newInputStream();
+    in.mark(content.length);
+    assertEquals(PartBuffer.CHUNK_SIZE, in.skip(PartBuffer.CHUNK_SIZE));
+    assertEquals(content[PartBuffer.CHUNK_SIZE] & 0xff, in.read());
+    in.reset();
+    assertArrayEquals(content, readFully(in));
+    buffer.release();
+  }
+
+  @Test
+  public void testReleasedChunksAreReused() {
+    PartBuffer buffer = new PartBuffer();
+    buffer.write(1);
+    byte[] chunk = buffer.getChunk(0);
+    buffer.release();
+
+    PartBuffer nextBuffer = new PartBuffer();
+    nextBuffer.write(2);
+    assertEquals(chunk, nextBuffer.getChunk(0));
+    nextBuffer.release();
+  }
+
+  private byte[] readFully(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] readBuffer = new byte[5000];
+    int length;
+    while ((length = in.read(readBuffer)) != -1) {
+      out.write(readBuffer, 0, length);
+    }
+    return out.toByteArray();
+  }
+}
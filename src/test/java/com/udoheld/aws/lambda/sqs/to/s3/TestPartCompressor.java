@@ -0,0 +1,154 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Udo Held
+ */
+public class TestPartCompressor {
+
+  @Test
+  public void testGzipStreamSpansParts() throws IOException {
+    PartCompressor compressor = new PartCompressor(Deflater.DEFAULT_COMPRESSION);
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    ByteArrayOutputStream uploaded = new ByteArrayOutputStream();
+
+    for (int file = 0; file < 2; file++) {
+      expected.reset();
+      uploaded.reset();
+      for (int part = 0; part < 3; part++) {
+        PartBuffer partBuffer = new PartBuffer();
+        for (int block = 0; block < 4; block++) {
+          PartBuffer staging = new PartBuffer(PartBuffer.ChecksumType.NONE);
+          for (int i = 0; i < 2000; i++) {
+            byte[] record = ("{\"id\":" + (part * 10000 + block * 2000 + i)
+                + ",\"type\":\"order\",\"status\":\"created\"}\n")
+                .getBytes(StandardCharsets.UTF_8);
+            staging.write(record, 0, record.length);
+            expected.write(record, 0, record.length);
+          }
+          compressor.compress(staging, partBuffer, part == 2 && block == 3);
+          staging.release();
+        }
+        uploaded.write(readFully(partBuffer.newInputStream()));
+        partBuffer.release();
+      }
+
+      assertTrue(uploaded.size() * 5 < expected.size());
+      assertArrayEquals(expected.toByteArray(),
+          readFully(new GZIPInputStream(new ByteArrayInputStream(uploaded.toByteArray()))));
+    }
+  }
+
+  @Test
+  public void testParallelGzipMembers() throws IOException {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    ParallelPartCompressor compressor =
+        new ParallelPartCompressor(Deflater.DEFAULT_COMPRESSION, executor, 2);
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    ByteArrayOutputStream uploaded = new ByteArrayOutputStream();
+
+    for (int part = 0; part < 3; part++) {
+      PartBuffer partBuffer = new PartBuffer();
+      for (int block = 0; block < 5; block++) {
+        PartBuffer staging = new PartBuffer(PartBuffer.ChecksumType.NONE);
+        for (int i = 0; i < 3000; i++) {
+          byte[] record = ("{\"id\":" + (part * 100000 + block * 3000 + i)
+              + ",\"type\":\"order\"}\n").getBytes(StandardCharsets.UTF_8);
+          staging.write(record, 0, record.length);
+          expected.write(record, 0, record.length);
+        }
+        compressor.compress(staging, partBuffer);
+      }
+      if (part == 2) {
+        compressor.finish(partBuffer);
+      }
+      uploaded.write(readFully(partBuffer.newInputStream()));
+      partBuffer.release();
+    }
+    executor.shutdown();
+
+    assertArrayEquals(expected.toByteArray(),
+        readFully(new GZIPInputStream(new ByteArrayInputStream(uploaded.toByteArray()))));
+  }
+
+  @Test
+  public void testResetReleasesQueuedBlocks() throws InterruptedException {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    CountDownLatch busy = new CountDownLatch(1);
+    executor.submit(() -> {
+      busy.await();
+      return null;
+    });
+    ParallelPartCompressor compressor =
+        new ParallelPartCompressor(Deflater.DEFAULT_COMPRESSION, executor, 4);
+    List<PartBuffer> stagings = new ArrayList<>();
+    PartBuffer partBuffer = new PartBuffer();
+    for (int block = 0; block < 3; block++) {
+      PartBuffer staging = new PartBuffer(PartBuffer.ChecksumType.NONE);
+      byte[] record = ("{\"id\":" + block + "}\n").getBytes(StandardCharsets.UTF_8);
+      staging.write(record, 0, record.length);
+      stagings.add(staging);
+      compressor.compress(staging, partBuffer);
+    }
+
+    // The blocks haven't started when the upload fails.
+    new Thread(() -> {
+      StandInSqsClient.sleep(50);
+      busy.countDown();
+    }).start();
+    compressor.reset();
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+    stagings.forEach(staging -> assertEquals(0, staging.size()));
+    assertEquals(0, partBuffer.size());
+    partBuffer.release();
+  }
+
+  private static byte[] readFully(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,63 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.Config;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the geometric growth of the part size.
+ *
+ * @author Udo Held
+ */
+public class TestPartSizeSchedule {
+
+  private static final long MB = 1024L * 1024L;
+
+  @Test
+  public void testPartSizeDoublesUpToMaximum() {
+    Config config = initConfig(5120, 20480, 10240);
+
+    assertEquals(5 * MB, PartSizeSchedule.getPartSizeLimit(config, 0));
+    assertEquals(5 * MB, PartSizeSchedule.getPartSizeLimit(config, 3));
+    assertEquals(10 * MB, PartSizeSchedule.getPartSizeLimit(config, 4));
+    assertEquals(20 * MB, PartSizeSchedule.getPartSizeLimit(config, 8));
+    assertEquals(20 * MB, PartSizeSchedule.getPartSizeLimit(config, 9999));
+  }
+
+  @Test
+  public void testLargeFilesFitIntoPartLimit() {
+    // 100 GB wouldn't fit into 10,000 parts of 5 MB.
+    Config config = initConfig(5120, 5120, 100 * 1024 * 1024);
+
+    long limit = PartSizeSchedule.getPartSizeLimit(config, 0);
+    assertTrue(limit * PartSizeSchedule.S3_MAXIMUM_PARTS >= 100L * 1024 * MB);
+  }
+
+  private Config initConfig(int partSizeKb, int partMaxSizeKb, int fileSizeKb) {
+    Config config = new Config();
+    config.setS3UploadPartSizeKb(partSizeKb);
+    config.setS3UploadPartMaxSizeKb(partMaxSizeKb);
+    config.setS3MaxFileSizeKb(fileSizeKb);
+    return config;
+  }
+}
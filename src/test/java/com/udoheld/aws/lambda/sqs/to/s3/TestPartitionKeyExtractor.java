@@ -0,0 +1,85 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.Config;
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.ConfigurationInitializer;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Udo Held
+ */
+public class TestPartitionKeyExtractor {
+
+  @Test
+  public void testJsonField() {
+    PartitionKeyExtractor extractor = createExtractor(
+        ConfigurationInitializer.S3_PARTITION_KEY_SOURCE_JSON, "customer.country", "country");
+
+    assertEquals("country=DE/", extractor.getPartitionPrefix(message(
+        "{\"id\":1,\"items\":[{\"country\":\"US\"}],\"customer\":{\"name\":\"a\","
+            + "\"country\":\"DE\"}}")));
+    assertEquals("country=" + PartitionKeyExtractor.DEFAULT_PARTITION + "/",
+        extractor.getPartitionPrefix(message("{\"customer\":{\"country\":null}}")));
+    assertEquals("country=" + PartitionKeyExtractor.DEFAULT_PARTITION + "/",
+        extractor.getPartitionPrefix(message("no json")));
+  }
+
+  @Test
+  public void testMessageAttribute() {
+    PartitionKeyExtractor extractor = createExtractor(
+        ConfigurationInitializer.S3_PARTITION_KEY_SOURCE_ATTRIBUTE, "type", "type");
+    SqsMessageHandler.MessageHolder message = message("body");
+    message.setMessageAttributes(Collections.singletonMap("type", "order/created"));
+
+    assertEquals("type=order%2Fcreated/", extractor.getPartitionPrefix(message));
+  }
+
+  @Test
+  public void testRegexGroup() {
+    PartitionKeyExtractor extractor = createExtractor(
+        ConfigurationInitializer.S3_PARTITION_KEY_SOURCE_REGEX, "level=(\\w+)", "level");
+
+    assertEquals("level=WARN/", extractor.getPartitionPrefix(message("x level=WARN y")));
+  }
+
+  @Test
+  public void testNoPartitioning() {
+    assertNull(createExtractor(ConfigurationInitializer.S3_PARTITION_KEY_SOURCE_NONE, "", ""));
+  }
+
+  private static PartitionKeyExtractor createExtractor(String source, String key, String name) {
+    Config config = new Config();
+    config.setS3PartitionKeySource(source);
+    config.setS3PartitionKey(key);
+    config.setS3PartitionName(name);
+    return PartitionKeyExtractor.create(config);
+  }
+
+  private static SqsMessageHandler.MessageHolder message(String body) {
+    SqsMessageHandler.MessageHolder message = new SqsMessageHandler.MessageHolder();
+    message.setMessage(body);
+    return message;
+  }
+}
@@ -0,0 +1,147 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.Config;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Udo Held
+ */
+public class TestRecordFramer {
+
+  private static final int BENCHMARK_MESSAGES = 200_000;
+
+  private Logger log = Logger.getLogger(this.getClass().getName());
+
+  @Test
+  public void testFraming() throws IOException {
+    RecordFramer framer = new RecordFramer(initConfig());
+    PartBuffer buffer = new PartBuffer();
+    String[] messages = {"{\"a\":1}", "äöü €", "emoji 😀", "broken \uD800 surrogate"};
+
+    StringBuilder expected = new StringBuilder("[");
+    for (int i = 0; i < messages.length; i++) {
+      framer.writeRecord(buffer, messages[i], i == 0);
+      expected.append(i == 0 ? "" : ",\n").append("<").append(messages[i]).append(">");
+    }
+    framer.writeFileTerminator(buffer);
+    expected.append("]");
+
+    assertArrayEquals(expected.toString().getBytes(StandardCharsets.UTF_8), readFully(buffer));
+    buffer.release();
+  }
+
+  /**
+   * Compares the allocations per message of the previous getBytes() based framing with the
+   * framer. Requires a HotSpot JVM for measuring the allocated bytes of the thread.
+   */
+  @Test
+  public void testFramingAllocations() {
+    Assume.assumeTrue(ManagementFactory.getThreadMXBean()
+        instanceof com.sun.management.ThreadMXBean);
+    Config config = initConfig();
+    RecordFramer framer = new RecordFramer(config);
+    String message = "{\"id\":12345,\"type\":\"order\",\"text\":\"Grüße aus Köln\"}";
+
+    // Warm-up, so the pool holds enough chunks and the JIT compiled the loops.
+    frameWithGetBytes(config, message, BENCHMARK_MESSAGES);
+    frameWithFramer(framer, message, BENCHMARK_MESSAGES);
+
+    long getBytesAllocated = allocatedBytes();
+    frameWithGetBytes(config, message, BENCHMARK_MESSAGES);
+    getBytesAllocated = allocatedBytes() - getBytesAllocated;
+
+    long framerAllocated = allocatedBytes();
+    frameWithFramer(framer, message, BENCHMARK_MESSAGES);
+    framerAllocated = allocatedBytes() - framerAllocated;
+
+    log.info("Allocated bytes per message, getBytes: "
+        + getBytesAllocated / BENCHMARK_MESSAGES + " framer: "
+        + framerAllocated / BENCHMARK_MESSAGES);
+    assertTrue("Framing should be nearly allocation free, allocated "
+        + framerAllocated / BENCHMARK_MESSAGES + " bytes per message.",
+        framerAllocated / BENCHMARK_MESSAGES < 8);
+  }
+
+  private void frameWithFramer(RecordFramer framer, String message, int count) {
+    PartBuffer buffer = new PartBuffer();
+    for (int i = 0; i < count; i++) {
+      framer.writeRecord(buffer, message, i == 0);
+      if (buffer.size() > 1024 * 1024) {
+        buffer.release();
+      }
+    }
+    buffer.release();
+  }
+
+  private void frameWithGetBytes(Config config, String message, int count) {
+    PartBuffer buffer = new PartBuffer();
+    for (int i = 0; i < count; i++) {
+      byte[] separator = config.getS3RecordSeparator().getBytes();
+      buffer.write(separator, 0, separator.length);
+      byte[] initiator = config.getS3RecordInitiator().getBytes();
+      buffer.write(initiator, 0, initiator.length);
+      byte[] body = message.getBytes();
+      buffer.write(body, 0, body.length);
+      byte[] terminator = config.getS3RecordTerminator().getBytes();
+      buffer.write(terminator, 0, terminator.length);
+      if (buffer.size() > 1024 * 1024) {
+        buffer.release();
+      }
+    }
+    buffer.release();
+  }
+
+  private long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private Config initConfig() {
+    Config config = new Config();
+    config.setS3FileInitiator("[");
+    config.setS3FileTerminator("]");
+    config.setS3RecordInitiator("<");
+    config.setS3RecordSeparator(",\n");
+    config.setS3RecordTerminator(">");
+    return config;
+  }
+
+  private byte[] readFully(PartBuffer buffer) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    InputStream in = buffer.newInputStream();
+    int value;
+    while ((value = in.read()) != -1) {
+      out.write(value);
+    }
+    return out.toByteArray();
+  }
+}
@@ -26,6 +26,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.logging.Logger;
@@ -69,6 +70,21 @@ public class TestS3MultiPartFileHandler {
     assertTrue(fileHandler.finalizeMultipartUpload());
   }
 
+  @Test
+  public void testSinglePartFile() {
+    DateTimeFormatter dtf = DateTimeFormatter.ISO_OFFSET_DATE_TIME;
+    String fileName = this.getClass().getSimpleName() + "-single"
+        + ZonedDateTime.now().format(dtf);
+
+    S3MultiPartFileHandler fileHandler =
+        S3MultiPartFileHandler.startFileUpload(fileName, config, context.getLogger());
+    PartBuffer buffer = new PartBuffer();
+    byte[] message = getTestMessage(0).getBytes(StandardCharsets.UTF_8);
+    buffer.write(message, 0, message.length);
+    fileHandler.uploadPart(buffer, true);
+    assertTrue(fileHandler.finalizeMultipartUpload());
+  }
+
 
   private String getTestMessage(int partNumber){
     String message = "Part " + partNumber + System.lineSeparator()
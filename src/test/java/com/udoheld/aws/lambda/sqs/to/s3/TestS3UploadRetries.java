@@ -0,0 +1,125 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.Config;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Udo Held
+ */
+public class TestS3UploadRetries {
+
+  private Logger log = Logger.getLogger(this.getClass().getName());
+
+  @Test
+  public void testTransientFailuresAreRetried() {
+    assertTrue(S3MultiPartFileHandler.isRetryable(s3Exception(500, "InternalError")));
+    assertTrue(S3MultiPartFileHandler.isRetryable(s3Exception(503, "SlowDown")));
+    assertTrue(S3MultiPartFileHandler.isRetryable(s3Exception(400, "RequestTimeout")));
+    assertTrue(S3MultiPartFileHandler.isRetryable(
+        new AmazonClientException("Unable to execute HTTP request")));
+  }
+
+  @Test
+  public void testPermanentFailuresAbort() {
+    assertFalse(S3MultiPartFileHandler.isRetryable(s3Exception(403, "AccessDenied")));
+    assertFalse(S3MultiPartFileHandler.isRetryable(s3Exception(404, "NoSuchUpload")));
+    assertFalse(S3MultiPartFileHandler.isRetryable(s3Exception(400, "InvalidDigest")));
+  }
+
+  @Test
+  public void testFailedPartIsSentAgain() {
+    Config config = new Config();
+    config.setS3BucketName("bucket");
+    config.setS3UploadThreadsEnabled(true);
+    config.setS3UploadThreadCount(2);
+    config.setS3UploadMaxInflightMb(64);
+    config.setS3UploadMaxRetries(3);
+    StandInS3Client s3Client = new StandInS3Client();
+    ContainerResources.get(config).setS3Client(s3Client);
+    s3Client.failPartOnce(2);
+
+    S3MultiPartFileHandler handler = S3MultiPartFileHandler.startFileUpload("retried", config,
+        TestConfigurationUtil.initContext(log, 20000).getLogger());
+    handler.uploadPart("first,".getBytes(StandardCharsets.UTF_8));
+    handler.uploadPart("second,".getBytes(StandardCharsets.UTF_8));
+    PartBuffer last = new PartBuffer();
+    last.write("third".getBytes(StandardCharsets.UTF_8), 0, 5);
+    handler.uploadPart(last, true);
+
+    assertTrue(handler.finalizeMultipartUpload());
+    assertEquals(1, s3Client.getPartRequests(1));
+    assertEquals(2, s3Client.getPartRequests(2));
+    assertEquals(1, s3Client.getPartRequests(3));
+    assertEquals(0, s3Client.getAbortedUploads());
+    assertArrayEquals("first,second,third".getBytes(StandardCharsets.UTF_8),
+        s3Client.getObjects().get("retried"));
+  }
+
+  @Test
+  public void testSinglePartUploadIsMeasured() {
+    Config config = new Config();
+    config.setS3BucketName("bucket");
+    config.setS3UploadThreadsEnabled(true);
+    config.setS3UploadThreadCount(1);
+    config.setS3UploadThreadsAdaptive(true);
+    config.setS3UploadThreadsMax(3);
+    config.setS3UploadMaxInflightMb(64);
+    StandInS3Client s3Client = new StandInS3Client();
+    ContainerResources.get(config).setS3Client(s3Client);
+    UploadConcurrencyLimiter limiter = ContainerResources.get(config).getUploadLimiter();
+    TimeBudgetScheduler timeBudget = new TimeBudgetScheduler(config);
+    TimeBudgetScheduler unmeasured = new TimeBudgetScheduler(config);
+
+    S3MultiPartFileHandler handler = S3MultiPartFileHandler.startFileUpload("single", config,
+        TestConfigurationUtil.initContext(log, 20000).getLogger());
+    handler.setTimeBudget(timeBudget);
+    byte[] content = new byte[1024 * 1024];
+    PartBuffer buffer = new PartBuffer();
+    buffer.write(content, 0, content.length);
+    handler.uploadPart(buffer, true);
+
+    assertTrue(handler.finalizeMultipartUpload());
+    assertEquals(0, s3Client.getPartRequests(1));
+    assertTrue(limiter.getAverageMsPerMb() >= 0);
+    assertEquals(2, limiter.getLimit());
+    // The measured upload is faster than the initial estimate and nothing is pending anymore.
+    timeBudget.update(content.length, 0, 0);
+    unmeasured.update(content.length, 0, 0);
+    assertTrue(timeBudget.getPredictedFinishMs() < unmeasured.getPredictedFinishMs());
+  }
+
+  private static AmazonS3Exception s3Exception(int status, String errorCode) {
+    AmazonS3Exception exception = new AmazonS3Exception(errorCode);
+    exception.setStatusCode(status);
+    exception.setErrorCode(errorCode);
+    return exception;
+  }
+}
@@ -71,7 +71,7 @@ public class TestSqsHandler {
 
     List<SqsMessageHandler.MessageHolder> messages = null;
 
-    SqsMessageHandler sqs = new SqsMessageHandler(config);
+    SqsMessageHandler sqs = new SqsMessageHandler(config, context);
     try {
       messages = sqs.readMessages();
       assertNotNull(messages);
@@ -84,14 +84,16 @@ public class TestSqsHandler {
             .map( msg -> msg.getMessageId())
             .collect(Collectors.toList());
         sqs.deleteMessages(messageIds);
+        sqs.awaitDeletions();
       }
     }
   }
 
   @Test
   public void testEmptyDelete(){
-    SqsMessageHandler sqs = new SqsMessageHandler(config);
+    SqsMessageHandler sqs = new SqsMessageHandler(config, context);
     sqs.deleteMessages(new ArrayList<>());
+    sqs.awaitDeletions();
   }
 
   @Ignore
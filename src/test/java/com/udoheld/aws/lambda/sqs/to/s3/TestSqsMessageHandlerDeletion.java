@@ -0,0 +1,121 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.Config;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the asynchronous deletions with an in-memory SQS stand-in.
+ *
+ * @author Udo Held
+ */
+public class TestSqsMessageHandlerDeletion {
+
+  private Logger log = Logger.getLogger(this.getClass().getName());
+  private Context context = TestConfigurationUtil.initContext(log, 20000);
+
+  @Test
+  public void testFailedEntriesAreRetried() {
+    StandInSqsClient sqsClient = new StandInSqsClient(0, 0);
+    List<String> handles = handles(0, 25);
+    sqsClient.failDeletionOnce("handle-3");
+    sqsClient.failDeletionOnce("handle-12");
+    sqsClient.failDeletionOnce("handle-24");
+    sqsClient.failDeletionAlways("handle-7");
+
+    SqsMessageHandler sqs = new SqsMessageHandler(initConfig(), context, sqsClient);
+    sqs.deleteMessages(handles);
+    sqs.awaitDeletions();
+
+    assertEquals(24, sqsClient.getDeletedHandles().size());
+    assertTrue(sqsClient.getDeletedHandles().contains("handle-12"));
+    assertFalse(sqsClient.getDeletedHandles().contains("handle-7"));
+    assertEquals(3, sqs.getRetriedDeletes());
+    assertEquals(1, sqs.getFailedDeletes());
+  }
+
+  @Test(timeout = 10000)
+  public void testDeletionsOverlapProcessing() {
+    StandInSqsClient sqsClient = new StandInSqsClient(0, 0);
+    sqsClient.holdDeletions();
+    SqsMessageHandler sqs = new SqsMessageHandler(initConfig(), context, sqsClient);
+
+    // Returns while SQS hasn't answered a single deletion yet.
+    sqs.deleteMessages(handles(0, 30));
+    while (sqsClient.getRunningDeletions() < 2) {
+      StandInSqsClient.sleep(5);
+    }
+    assertTrue(sqsClient.getDeletedHandles().isEmpty());
+
+    new Thread(() -> {
+      StandInSqsClient.sleep(100);
+      sqsClient.releaseDeletions();
+    }).start();
+    sqs.awaitDeletions();
+    // All batches have been answered, not only the ones running when awaitDeletions was called.
+    assertEquals(30, sqsClient.getDeletedHandles().size());
+    assertEquals(0, sqsClient.getRunningDeletions());
+  }
+
+  @Test
+  public void testDeletionExecutorIsReused() {
+    Config config = initConfig();
+    StandInSqsClient sqsClient = new StandInSqsClient(0, 0);
+    ExecutorService executor = ContainerResources.get(config).getDeletionExecutor();
+
+    for (int run = 0; run < 3; run++) {
+      SqsMessageHandler sqs = new SqsMessageHandler(config, context, sqsClient);
+      sqs.deleteMessages(handles(run * 50, 50));
+      sqs.awaitDeletions();
+      assertSame(executor, ContainerResources.get(config).getDeletionExecutor());
+    }
+
+    assertEquals(150, sqsClient.getDeletedHandles().size());
+    // Every run used the same two container threads.
+    assertTrue(sqsClient.getDeletionThreads().size() <= config.getSqsDeletionThreads());
+  }
+
+  private static List<String> handles(int first, int count) {
+    List<String> handles = new ArrayList<>();
+    for (int i = first; i < first + count; i++) {
+      handles.add("handle-" + i);
+    }
+    return handles;
+  }
+
+  private Config initConfig() {
+    Config config = new Config();
+    config.setSqsSourceQueue("standInQueue");
+    config.setSqsDeletionThreads(2);
+    config.setSqsDeletionMaxRetries(3);
+    return config;
+  }
+}
@@ -0,0 +1,136 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.Config;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the background pollers with an in-memory SQS stand-in.
+ *
+ * @author Udo Held
+ */
+public class TestSqsMessageHandlerPollers {
+
+  private Logger log = Logger.getLogger(this.getClass().getName());
+  private Context context = TestConfigurationUtil.initContext(log, 20000);
+
+  @Test
+  public void testPollersDrainBacklog() {
+    StandInSqsClient sqsClient = new StandInSqsClient(250, 5);
+    SqsMessageHandler sqs = new SqsMessageHandler(initConfig(4), context, sqsClient);
+
+    assertEquals(250, readAll(sqs).size());
+    assertTrue(sqsClient.getReleasedHandles().isEmpty());
+  }
+
+  @Test
+  public void testPollersOverlapReceives() {
+    StandInSqsClient singleClient = new StandInSqsClient(200, 50);
+    assertEquals(200, readAll(new SqsMessageHandler(initConfig(1), context, singleClient)).size());
+
+    StandInSqsClient pollerClient = new StandInSqsClient(200, 50);
+    assertEquals(200, readAll(new SqsMessageHandler(initConfig(4), context, pollerClient)).size());
+
+    // A single thread waits for every receive call, the pollers wait for four at a time.
+    assertEquals(1, singleClient.getMaxConcurrentReceives());
+    assertEquals(4, pollerClient.getMaxConcurrentReceives());
+    // Both drain the queue with full batches.
+    assertEquals(21, singleClient.getReceiveCalls());
+    assertTrue(pollerClient.getReceiveCalls() <= 21 + 4);
+  }
+
+  @Test
+  public void testUnreadMessagesAreReleased() {
+    StandInSqsClient sqsClient = new StandInSqsClient(500, 5);
+    SqsMessageHandler sqs = new SqsMessageHandler(initConfig(4), context, sqsClient);
+
+    Set<String> readHandles = new HashSet<>();
+    sqs.startReceiving(() -> true);
+    try {
+      sqs.readMessages().forEach(message -> readHandles.add(message.getMessageId()));
+      // Lets the pollers fill the hand-off queue and block on it.
+      StandInSqsClient.sleep(200);
+    } finally {
+      sqs.stopReceiving();
+    }
+
+    int unread = sqsClient.getReceivedMessages() - readHandles.size();
+    assertTrue(unread > 0);
+    assertEquals(unread, sqsClient.getReleasedHandles().size());
+    readHandles.forEach(handle -> assertFalse(sqsClient.getReleasedHandles().contains(handle)));
+    // Only the messages, which have been read, are still extended by the heartbeat.
+    assertEquals(readHandles.size(), sqs.getTrackedMessageCount());
+    sqs.stopHeartbeat();
+  }
+
+  @Test
+  public void testPredictiveBudgetKeepsLongPolling() {
+    StandInSqsClient sqsClient = new StandInSqsClient(0, 0);
+    Config config = initConfig(1);
+    config.setSqsReceiveWaitTimeSeconds(5);
+    // The fixed remaining time would leave no time for long polling.
+    config.setLambdaMaxRemainingTimeMs(19500);
+    config.setLambdaPredictiveTimeBudget(true);
+    SqsMessageHandler sqs = new SqsMessageHandler(config, context, sqsClient);
+    sqs.setTimeBudget(new TimeBudgetScheduler(config));
+
+    assertTrue(sqs.readMessages().isEmpty());
+    assertEquals(Collections.singletonList(5), sqsClient.getWaitTimeSeconds());
+    sqs.stopHeartbeat();
+  }
+
+  private Set<String> readAll(SqsMessageHandler sqs) {
+    Set<String> readHandles = new HashSet<>();
+    sqs.startReceiving(() -> true);
+    try {
+      List<SqsMessageHandler.MessageHolder> messages;
+      while (!(messages = sqs.readMessages()).isEmpty()) {
+        messages.forEach(message -> assertTrue(readHandles.add(message.getMessageId())));
+      }
+    } finally {
+      sqs.stopReceiving();
+    }
+    sqs.stopHeartbeat();
+    return readHandles;
+  }
+
+  private Config initConfig(int threads) {
+    Config config = new Config();
+    config.setSqsSourceQueue("standInQueue");
+    config.setSqsReceiveThreads(threads);
+    config.setSqsReceiveQueueBatches(4);
+    config.setSqsReceiveMaxEmptyReceives(1);
+    config.setSqsVisibilityTimeoutSeconds(60);
+    config.setSqsVisibilityHeartbeatMarginSeconds(10);
+    config.setSqsDeletionThreads(1);
+    return config;
+  }
+}
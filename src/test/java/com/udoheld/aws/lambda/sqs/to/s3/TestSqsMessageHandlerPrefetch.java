@@ -0,0 +1,132 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.Config;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that prefetching overlaps the SQS receive calls with the processing of the previous
+ * batch, using an in-memory SQS stand-in instead of a real queue.
+ *
+ * @author Udo Held
+ */
+public class TestSqsMessageHandlerPrefetch {
+
+  private static final int TEST_BATCHES = 10;
+  private static final long TEST_RECEIVE_LATENCY_MS = 20;
+  private static final long OVERLAP_TIMEOUT_MS = 5000;
+
+  private Logger log = Logger.getLogger(this.getClass().getName());
+  private Context context = TestConfigurationUtil.initContext(log, 20000);
+
+  @Test
+  public void testPrefetchOverlapsReceiveAndProcessing() {
+    StandInSqsClient sqsClient = new StandInSqsClient(TEST_BATCHES * 10, TEST_RECEIVE_LATENCY_MS);
+    SqsMessageHandler sqs = new SqsMessageHandler(initConfig(true), context, sqsClient);
+
+    int batches = 0;
+    sqs.startReceiving(() -> true);
+    try {
+      while (!sqs.readMessages().isEmpty()) {
+        batches++;
+        // Stands in for framing and part upload of the batch, which only finishes once the
+        // receive of the next batch has started.
+        long deadline = System.currentTimeMillis() + OVERLAP_TIMEOUT_MS;
+        while (sqsClient.getReceiveCalls() <= batches
+            && System.currentTimeMillis() < deadline) {
+          StandInSqsClient.sleep(1);
+        }
+        assertTrue("The receive of the batch after batch " + batches
+            + " should start while it is processed.", sqsClient.getReceiveCalls() > batches);
+      }
+    } finally {
+      sqs.stopReceiving();
+    }
+    assertEquals(TEST_BATCHES, batches);
+  }
+
+  @Test
+  public void testPrefetchReadsAllMessages() {
+    Config config = initConfig(true);
+    StandInSqsClient sqsClient = new StandInSqsClient(25, 0);
+    SqsMessageHandler sqs = new SqsMessageHandler(config, context, sqsClient);
+
+    int readCount = 0;
+    sqs.startReceiving(() -> true);
+    try {
+      List<SqsMessageHandler.MessageHolder> messages;
+      while (!(messages = sqs.readMessages()).isEmpty()) {
+        readCount += messages.size();
+      }
+    } finally {
+      sqs.stopReceiving();
+    }
+    assertEquals(25, readCount);
+    assertEquals("Three full batches and one empty receive are expected.",
+        4, sqsClient.getReceiveCalls());
+  }
+
+  @Test
+  public void testStopReleasesPrefetchedBatch() {
+    StandInSqsClient sqsClient = new StandInSqsClient(30, TEST_RECEIVE_LATENCY_MS * 5);
+    Config config = initConfig(true);
+    config.setSqsVisibilityTimeoutSeconds(60);
+    config.setSqsVisibilityHeartbeatMarginSeconds(10);
+    SqsMessageHandler sqs = new SqsMessageHandler(config, context, sqsClient);
+
+    sqs.startReceiving(() -> true);
+    List<SqsMessageHandler.MessageHolder> messages;
+    try {
+      messages = sqs.readMessages();
+      while (sqsClient.getReceiveCalls() < 2) {
+        StandInSqsClient.sleep(1);
+      }
+    } finally {
+      // Stops while the second batch is being received.
+      sqs.stopReceiving();
+    }
+
+    assertEquals(10, messages.size());
+    assertEquals(20, sqsClient.getReceivedMessages());
+    assertEquals(10, sqsClient.getReleasedHandles().size());
+    messages.forEach(message ->
+        assertFalse(sqsClient.getReleasedHandles().contains(message.getMessageId())));
+    // Only the batch, which has been read, is still extended by the heartbeat.
+    assertEquals(10, sqs.getTrackedMessageCount());
+    sqs.stopHeartbeat();
+  }
+
+  private Config initConfig(boolean prefetch) {
+    Config config = new Config();
+    config.setSqsSourceQueue("standInQueue");
+    config.setSqsReceiveThreads(1);
+    config.setSqsReceivePrefetchEnabled(prefetch);
+    config.setSqsReceiveMaxEmptyReceives(1);
+    return config;
+  }
+}
@@ -0,0 +1,118 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.Config;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the prediction of the time needed for finishing the open files.
+ *
+ * @author Udo Held
+ */
+public class TestTimeBudgetScheduler {
+
+  private static final long MB = 1024L * 1024L;
+
+  @Test
+  public void testPredictionFollowsMeasuredLatencies() {
+    TimeBudgetScheduler scheduler = new TimeBudgetScheduler(initConfig());
+    for (int i = 0; i < 50; i++) {
+      scheduler.recordReceive(100);
+      scheduler.recordComplete(300);
+      scheduler.recordDelete(50);
+      scheduler.partQueued(10 * MB);
+      scheduler.partUploaded(10 * MB, 1000);
+    }
+    // 20 MB at 100 ms/MB on 2 threads, 2 completes, 20 delete batches on 5 threads.
+    scheduler.update(20 * MB, 2, 200);
+
+    assertEquals(100 + 1000 + 600 + 200, scheduler.getPredictedFinishMs(), 10);
+    assertTrue(scheduler.hasTimeLeft(5000));
+    assertFalse(scheduler.hasTimeLeft(3000));
+    assertEquals(5000 - 1900 - 1500, scheduler.getRemainingBudgetMs(5000), 10);
+  }
+
+  @Test
+  public void testQueuedPartsArePredicted() {
+    TimeBudgetScheduler scheduler = new TimeBudgetScheduler(initConfig());
+    scheduler.update(0, 0, 0);
+    long idle = scheduler.getPredictedFinishMs();
+
+    scheduler.partQueued(20 * MB);
+    scheduler.update(0, 0, 0);
+    assertTrue(scheduler.getPredictedFinishMs() > idle);
+
+    scheduler.partUploaded(20 * MB, -1);
+    scheduler.update(0, 0, 0);
+    assertEquals(idle, scheduler.getPredictedFinishMs());
+  }
+
+  @Test
+  public void testRunningDeletionsArePredicted() {
+    TimeBudgetScheduler scheduler = new TimeBudgetScheduler(initConfig());
+    scheduler.update(0, 0, 0);
+    long idle = scheduler.getPredictedFinishMs();
+
+    for (int i = 0; i < 10; i++) {
+      scheduler.deletionQueued();
+    }
+    scheduler.update(0, 0, 0);
+    // 10 running batches on 5 threads at the initial 200 ms.
+    assertEquals(idle + 400, scheduler.getPredictedFinishMs());
+
+    for (int i = 0; i < 10; i++) {
+      scheduler.deletionFinished();
+    }
+    scheduler.update(0, 0, 0);
+    assertEquals(idle, scheduler.getPredictedFinishMs());
+  }
+
+  @Test
+  public void testAdaptiveLimitIsPredicted() {
+    Config config = initConfig();
+    config.setS3UploadThreadCount(4);
+    UploadConcurrencyLimiter limiter = new UploadConcurrencyLimiter(4, 4);
+    TimeBudgetScheduler scheduler = new TimeBudgetScheduler(config, limiter);
+    scheduler.update(0, 0, 0);
+    long idle = scheduler.getPredictedFinishMs();
+
+    // 8 MB at the initial 200 ms/MB on 4 threads.
+    scheduler.update(8 * MB, 0, 0);
+    assertEquals(idle + 400, scheduler.getPredictedFinishMs());
+
+    limiter.onThrottled(System.nanoTime());
+    scheduler.update(8 * MB, 0, 0);
+    assertEquals(idle + 1600 / limiter.getLimit(), scheduler.getPredictedFinishMs());
+    assertTrue(limiter.getLimit() < 4);
+  }
+
+  private Config initConfig() {
+    Config config = new Config();
+    config.setS3UploadThreadsEnabled(true);
+    config.setS3UploadThreadCount(2);
+    config.setSqsDeletionThreads(5);
+    config.setSqsReceiveWaitTimeSeconds(1);
+    return config;
+  }
+}
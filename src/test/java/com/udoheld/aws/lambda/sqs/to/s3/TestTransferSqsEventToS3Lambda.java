@@ -0,0 +1,68 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Udo Held
+ */
+public class TestTransferSqsEventToS3Lambda {
+
+  private static final String TEST_EVENT = "{\"Records\":["
+      + "{\"messageId\":\"id-1\",\"receiptHandle\":\"handle-1\",\"body\":\"{\\\"a\\\":1}\","
+      + "\"attributes\":{\"ApproximateReceiveCount\":\"1\",\"SentTimestamp\":\"1523232000000\"},"
+      + "\"messageAttributes\":{},\"md5OfBody\":\"x\",\"eventSource\":\"aws:sqs\"},"
+      + "{\"messageId\":\"id-2\",\"receiptHandle\":\"handle-2\",\"body\":\"Test äöü\","
+      + "\"attributes\":{},\"messageAttributes\":{\"type\":{\"stringValue\":\"t\","
+      + "\"dataType\":\"String\"}},\"eventSource\":\"aws:sqs\"}]}";
+
+  @Test
+  public void testReadEvent() throws IOException {
+    List<SqsMessageHandler.MessageHolder> messages = TransferSqsEventToS3Lambda.readEvent(
+        new ByteArrayInputStream(TEST_EVENT.getBytes(StandardCharsets.UTF_8)));
+
+    assertEquals(2, messages.size());
+    assertEquals("id-1", messages.get(0).getSqsMessageId());
+    assertEquals("handle-1", messages.get(0).getMessageId());
+    assertEquals("{\"a\":1}", messages.get(0).getMessage());
+    assertEquals(1523232000000L, messages.get(0).getSentTimestampMs());
+    assertEquals(-1, messages.get(1).getSentTimestampMs());
+    assertEquals("Test äöü", messages.get(1).getMessage());
+    assertEquals("t", messages.get(1).getMessageAttributes().get("type"));
+  }
+
+  @Test
+  public void testWriteBatchItemFailures() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    TransferSqsEventToS3Lambda.writeBatchItemFailures(out, Arrays.asList("id-1", "id-2"));
+
+    assertEquals("{\"batchItemFailures\":[{\"itemIdentifier\":\"id-1\"},"
+        + "{\"itemIdentifier\":\"id-2\"}]}", out.toString("UTF-8"));
+  }
+}
@@ -0,0 +1,260 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.Config;
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.ConfigurationInitializer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Transfers messages to the in-memory S3 stand-in.
+ *
+ * @author Udo Held
+ */
+public class TestTransferToStandInS3 {
+
+  private static final long WINDOW_START_MS = 1523232000000L;
+  private static final String WINDOW_FILE_NAME = "2018-04-09T00:0%d:00-";
+
+  private Context context;
+  private StandInS3Client s3Client;
+
+  private Logger log = Logger.getLogger(this.getClass().getName());
+
+  @Before
+  public void initConfig() {
+    TestConfigurationUtil.purgeSystemEnvironmentVariables();
+    System.setProperty(ConfigurationInitializer.CFG_S3_BUCKET_NAME, "bucket");
+    context = TestConfigurationUtil.initContext(log, 20000);
+    s3Client = new StandInS3Client();
+  }
+
+  @After
+  public void purgeConfig() {
+    TestConfigurationUtil.purgeSystemEnvironmentVariables();
+  }
+
+  @Test
+  public void testWindowWritersRollAndAreEvicted() throws ReflectiveOperationException {
+    System.setProperty(ConfigurationInitializer.CFG_S3_EVENT_TIME_WINDOW,
+        ConfigurationInitializer.S3_EVENT_TIME_WINDOW_MINUTE);
+    System.setProperty(ConfigurationInitializer.CFG_S3_PARTITION_MAX_OPEN, "2");
+    List<SqsMessageHandler.MessageHolder> messages = new ArrayList<>();
+    messages.add(message("m1", 0));
+    messages.add(message("m2", 1));
+    // Finalizes the file of the first window, its writer is removed.
+    messages.add(message("m3", 2));
+    // Starts the second file of the first window, finalizing the file of the second window.
+    messages.add(message("m4", 0));
+
+    Constructor<TransferMessagesFromSqsToS3> constructor = TransferMessagesFromSqsToS3.class
+        .getDeclaredConstructor(Config.class, Context.class);
+    constructor.setAccessible(true);
+    TransferMessagesFromSqsToS3 sqsToS3 = constructor.newInstance(readConfig(), context);
+    invoke(sqsToS3, "initBaseFileName");
+    Method processMessage = TransferMessagesFromSqsToS3.class
+        .getDeclaredMethod("processMessage", SqsMessageHandler.MessageHolder.class);
+    processMessage.setAccessible(true);
+    Field partitions = TransferMessagesFromSqsToS3.class.getDeclaredField("partitions");
+    partitions.setAccessible(true);
+    for (SqsMessageHandler.MessageHolder message : messages) {
+      processMessage.invoke(sqsToS3, message);
+      assertTrue(((Map<?, ?>) partitions.get(sqsToS3)).size() <= 2);
+    }
+    invoke(sqsToS3, "flushAllPartitions");
+
+    assertEquals(4, s3Client.getObjects().size());
+    assertEquals(Collections.singletonList("m1"), windowFiles(0, false));
+    assertEquals(Collections.singletonList("m4"), windowFiles(0, true));
+    assertEquals(Collections.singletonList("m2"), windowFiles(1, false));
+    assertEquals(Collections.singletonList("m3"), windowFiles(2, false));
+  }
+
+  @Test
+  public void testWindowsWithoutDateInThePatternKeepTheirFiles() {
+    assertEquals(Arrays.asList("file-20180409T00-", "file-20180409T01-"),
+        hourWindowFiles("file*.json"));
+  }
+
+  @Test
+  public void testWindowsCoarserThanThePatternKeepTheirFiles() {
+    assertEquals(Arrays.asList("2018-04-09-20180409T00-", "2018-04-09-20180409T01-"),
+        hourWindowFiles("\"yyyy-MM-dd\"*.json"));
+  }
+
+  @Test
+  public void testWindowsCoveredByThePatternKeepTheirNames() {
+    assertEquals(Arrays.asList("2018-04-09T00-", "2018-04-09T01-"),
+        hourWindowFiles("\"yyyy-MM-dd'T'HH\"*.json"));
+  }
+
+  @Test
+  public void testFileSizeLimitAboveTwoGigabytes() {
+    System.setProperty(ConfigurationInitializer.CFG_S3_FILE_SIZE_KB,
+        Integer.toString(3 * 1024 * 1024));
+    System.setProperty(ConfigurationInitializer.CFG_S3_UPLOAD_PART_MAX_SIZE_KB,
+        Integer.toString(5 * 1024 * 1024));
+    System.setProperty(ConfigurationInitializer.CFG_S3_FILE_PATTERN, "large*.json");
+    Config config = readConfig();
+    assertTrue(config.getS3UploadPartMaxSizeKb() * 1024L < Integer.MAX_VALUE);
+
+    List<String> failed = TransferMessagesFromSqsToS3.transferMessagesToS3(config, context,
+        Arrays.asList(message("m1", 0), message("m2", 0), message("m3", 0)));
+
+    assertTrue(failed.isEmpty());
+    assertEquals(Collections.singleton("large.json"), s3Client.getObjects().keySet());
+    assertEquals("m1" + System.lineSeparator() + "m2" + System.lineSeparator() + "m3",
+        new String(s3Client.getObjects().get("large.json"), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testFilesCompleteInTheBackground() {
+    StandInSqsClient sqsClient = new StandInSqsClient(50, 0);
+    s3Client.setCompleteLatencyMs(150);
+
+    TransferMessagesFromSqsToS3.transferMessagesFromSqsToS3(readPollingConfig(sqsClient),
+        context);
+
+    assertEquals(5, s3Client.getObjects().size());
+    assertEquals(50, sqsClient.getDeletedHandles().size());
+    // The next file is written while the previous one completes, but only two are pending.
+    assertEquals(2, s3Client.getMaxConcurrentCompletes());
+  }
+
+  @Test
+  public void testPendingFilesAreDrainedOnFailure() {
+    StandInSqsClient sqsClient = new StandInSqsClient(50, 0);
+    s3Client.setCompleteLatencyMs(150);
+    s3Client.failComplete("file-1.json");
+
+    try {
+      TransferMessagesFromSqsToS3.transferMessagesFromSqsToS3(readPollingConfig(sqsClient),
+          context);
+      fail("The failed file must abort the processing.");
+    } catch (AmazonS3Exception expected) {
+      // Processing aborted.
+    }
+
+    assertEquals(0, s3Client.getRunningCompletes());
+    assertFalse(s3Client.getObjects().containsKey("file-1.json"));
+    assertTrue(s3Client.getObjects().containsKey("file-2.json"));
+    // Exactly the messages of the written files are deleted.
+    Set<String> writtenHandles = new HashSet<>();
+    s3Client.getObjects().values().forEach(content -> Arrays.stream(
+        new String(content, StandardCharsets.UTF_8).split(System.lineSeparator()))
+        .forEach(body -> writtenHandles.add(body.replace("Test message ", "handle-"))));
+    assertEquals(writtenHandles, sqsClient.getDeletedHandles());
+  }
+
+  /**
+   * Writes a message into each of two hourly windows.
+   * @param filePattern File pattern.
+   * @return Names of the two files up to the request id.
+   */
+  private List<String> hourWindowFiles(String filePattern) {
+    System.setProperty(ConfigurationInitializer.CFG_S3_EVENT_TIME_WINDOW,
+        ConfigurationInitializer.S3_EVENT_TIME_WINDOW_HOUR);
+    System.setProperty(ConfigurationInitializer.CFG_S3_FILE_PATTERN, filePattern);
+
+    List<String> failed = TransferMessagesFromSqsToS3.transferMessagesToS3(readConfig(), context,
+        Arrays.asList(message("m1", 0), message("m2", 60)));
+
+    assertTrue(failed.isEmpty());
+    assertEquals(2, s3Client.getObjects().size());
+    List<String> fileNames = new ArrayList<>();
+    for (String key : s3Client.getObjects().keySet()) {
+      fileNames.add(key.substring(0, key.lastIndexOf('-') + 1));
+    }
+    Collections.sort(fileNames);
+    return fileNames;
+  }
+
+  private static void invoke(Object target, String methodName)
+      throws ReflectiveOperationException {
+    Method method = target.getClass().getDeclaredMethod(methodName);
+    method.setAccessible(true);
+    method.invoke(target);
+  }
+
+  private Config readConfig() {
+    Config config = ConfigurationInitializer.initializeConfig(context, false, false);
+    ContainerResources.get(config).setS3Client(s3Client);
+    return config;
+  }
+
+  private Config readPollingConfig(StandInSqsClient sqsClient) {
+    System.setProperty(ConfigurationInitializer.CFG_SQS_QUEUE, "standInQueue");
+    System.setProperty(ConfigurationInitializer.CFG_S3_FILE_PATTERN, "file*.json");
+    System.setProperty(ConfigurationInitializer.CFG_S3_MAX_MESSAGES_PER_FILE, "10");
+    System.setProperty(ConfigurationInitializer.CFG_S3_FINALIZE_MAX_PENDING_FILES, "2");
+    Config config = ConfigurationInitializer.initializeConfig(context, false);
+    ContainerResources.get(config).setS3Client(s3Client);
+    ContainerResources.get(config).setSqsClient(sqsClient);
+    return config;
+  }
+
+  /**
+   * Contents of the files of a window.
+   * @param minute Minute of the window.
+   * @param rolled Only the second file of the window, otherwise only the first.
+   * @return File contents.
+   */
+  private List<String> windowFiles(int minute, boolean rolled) {
+    String prefix = String.format(WINDOW_FILE_NAME, minute);
+    List<String> contents = new ArrayList<>();
+    s3Client.getObjects().forEach((key, content) -> {
+      if (key.startsWith(prefix) && key.endsWith("-1.json") == rolled) {
+        contents.add(new String(content, StandardCharsets.UTF_8));
+      }
+    });
+    return contents;
+  }
+
+  static SqsMessageHandler.MessageHolder message(String body, int minute) {
+    SqsMessageHandler.MessageHolder message = new SqsMessageHandler.MessageHolder();
+    message.setMessage(body);
+    message.setMessageId("handle-" + body);
+    message.setSqsMessageId("id-" + body);
+    message.setAttributes(Collections.singletonMap(SqsMessageHandler.SENT_TIMESTAMP,
+        Long.toString(WINDOW_START_MS + minute * 60000L)));
+    return message;
+  }
+}
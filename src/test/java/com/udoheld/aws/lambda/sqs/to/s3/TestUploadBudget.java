@@ -0,0 +1,75 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import com.udoheld.aws.lambda.sqs.to.s3.cfg.Config;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the writer is blocked while the parts in flight use up the budget.
+ *
+ * @author Udo Held
+ */
+public class TestUploadBudget {
+
+  @Test
+  public void testWriterBlocksUntilPartIsReleased() throws InterruptedException {
+    UploadBudget budget = new UploadBudget(10);
+    budget.acquire(6);
+
+    CountDownLatch acquired = new CountDownLatch(1);
+    Thread writer = new Thread(() -> {
+      budget.acquire(6);
+      acquired.countDown();
+    });
+    writer.start();
+
+    assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+    assertEquals(1, budget.getInFlightParts());
+
+    budget.release(6);
+    assertTrue(acquired.await(5, TimeUnit.SECONDS));
+    assertEquals(1, budget.getInFlightParts());
+    assertEquals(6, budget.getInFlightBytes());
+    assertTrue(budget.getWaitedMs() > 0);
+  }
+
+  @Test
+  public void testOversizedPartIsAcceptedAlone() {
+    UploadBudget budget = new UploadBudget(10);
+    assertEquals(0, budget.acquire(20));
+    assertEquals(20, budget.getInFlightBytes());
+  }
+
+  @Test
+  public void testDefaultFromMemoryLimit() {
+    Config config = new Config();
+    assertEquals(64L * 1024 * 1024, UploadBudget.resolveMaxBytes(config, 256));
+
+    config.setS3UploadMaxInflightMb(16);
+    assertEquals(16L * 1024 * 1024, UploadBudget.resolveMaxBytes(config, 256));
+  }
+}
@@ -0,0 +1,88 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the additive increase and multiplicative decrease of the upload concurrency.
+ *
+ * @author Udo Held
+ */
+public class TestUploadConcurrencyLimiter {
+
+  private static final long MB = 1024L * 1024L;
+
+  @Test
+  public void testLimitGrowsByOnePerWindow() {
+    UploadConcurrencyLimiter limiter = new UploadConcurrencyLimiter(2, 4);
+    upload(limiter, 2);
+    assertEquals(3, limiter.getLimit());
+    upload(limiter, 3);
+    assertEquals(4, limiter.getLimit());
+    upload(limiter, 8);
+    assertEquals(4, limiter.getLimit());
+    assertEquals(2, limiter.getIncreases());
+  }
+
+  @Test
+  public void testThrottlingHalvesLimitOncePerWindow() {
+    UploadConcurrencyLimiter limiter = new UploadConcurrencyLimiter(8, 8);
+    long firstStart = limiter.acquire();
+    long secondStart = limiter.acquire();
+
+    assertEquals(UploadConcurrencyLimiter.Decision.DECREASED, limiter.onThrottled(firstStart));
+    assertEquals(4, limiter.getLimit());
+    // Sent before the decrease, the throttling has already been accounted for.
+    assertEquals(UploadConcurrencyLimiter.Decision.NONE, limiter.onThrottled(secondStart));
+    assertEquals(4, limiter.getLimit());
+    assertEquals(2, limiter.getThrottles());
+
+    limiter.release();
+    limiter.release();
+    assertEquals(UploadConcurrencyLimiter.Decision.DECREASED,
+        limiter.onThrottled(limiter.acquire()));
+    assertEquals(2, limiter.getLimit());
+  }
+
+  @Test
+  public void testLatencySpikeHalvesLimit() {
+    UploadConcurrencyLimiter limiter = new UploadConcurrencyLimiter(4, 4);
+    for (int i = 0; i < 4; i++) {
+      // Pretend the requests started 10 ms ago.
+      limiter.onSuccess(limiter.acquire() - 10_000_000L, 5 * MB);
+      limiter.release();
+    }
+    UploadConcurrencyLimiter.Decision decision =
+        limiter.onSuccess(limiter.acquire() - 1_000_000_000L, 5 * MB);
+    limiter.release();
+
+    assertEquals(UploadConcurrencyLimiter.Decision.DECREASED, decision);
+    assertEquals(2, limiter.getLimit());
+  }
+
+  private void upload(UploadConcurrencyLimiter limiter, int parts) {
+    for (int i = 0; i < parts; i++) {
+      limiter.onSuccess(limiter.acquire(), 0);
+      limiter.release();
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/*
+    Copyright 2017 the original author or authors.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with this program. If not, see
+    <http://www.gnu.org/licenses/>.
+ */
+
+package com.udoheld.aws.lambda.sqs.to.s3.cfg;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the defaults derived from the Lambda resources and the observed message sizes.
+ *
+ * @author Udo Held
+ */
+public class TestAutoTuner {
+
+  @After
+  public void resetObservations() {
+    AutoTuner.resetObservations();
+  }
+
+  @Test
+  public void testSmallLambda() {
+    AutoTuner tuner = new AutoTuner(256, 2);
+    assertEquals(4, tuner.getUploadThreads());
+    assertEquals(8192, tuner.getUploadPartSizeKb(4));
+    assertEquals(16384, tuner.getFileSizeKb(8192, 10000));
+    assertEquals(8, tuner.getDeletionThreads());
+  }
+
+  @Test
+  public void testMinimumMemoryKeepsMinimumPartSize() {
+    AutoTuner tuner = new AutoTuner(128, 2);
+    assertEquals(3, tuner.getUploadThreads());
+    assertEquals(5120, tuner.getUploadPartSizeKb(3));
+  }
+
+  @Test
+  public void testLargeLambda() {
+    AutoTuner tuner = new AutoTuner(3008, 2);
+    assertEquals(4, tuner.getUploadThreads());
+    assertEquals(65536, tuner.getUploadPartSizeKb(4));
+
+    tuner = new AutoTuner(10240, 6);
+    assertEquals(12, tuner.getUploadThreads());
+    assertEquals(16, tuner.getDeletionThreads());
+  }
+
+  @Test
+  public void testFileSizeFollowsObservedMessages() {
+    AutoTuner tuner = new AutoTuner(256, 2);
+    AutoTuner.recordMessages(1000, 1000L * 2048);
+    assertEquals(20000, tuner.getFileSizeKb(8192, 10000));
+
+    // Small messages never shrink files below a part.
+    AutoTuner.recordMessages(1000, 1000L * 10);
+    assertTrue(AutoTuner.getAverageMessageBytes() < 2048);
+    assertEquals(8192, tuner.getFileSizeKb(8192, 10));
+  }
+}